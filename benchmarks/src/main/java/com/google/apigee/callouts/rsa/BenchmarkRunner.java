@@ -0,0 +1,36 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts.rsa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Entry point for the benchmark uberjar. Accepts the usual JMH command line,
+ * and adds the GC profiler, which reports the allocation rate per operation,
+ * unless some other profiler was requested.
+ */
+public class BenchmarkRunner {
+  public static void main(String[] args) throws Exception {
+    List<String> jmhArgs = new ArrayList<String>(Arrays.asList(args));
+    if (!jmhArgs.contains("-prof")) {
+      jmhArgs.add("-prof");
+      jmhArgs.add("gc");
+    }
+    org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[0]));
+  }
+}
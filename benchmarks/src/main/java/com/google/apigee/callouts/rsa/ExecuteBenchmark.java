@@ -0,0 +1,120 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts.rsa;
+
+import com.apigee.flow.execution.ExecutionContext;
+import com.apigee.flow.execution.ExecutionResult;
+import com.apigee.flow.execution.spi.Execution;
+import com.apigee.flow.message.MessageContext;
+import java.security.Security;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * End-to-end cost of one callout execution, as the message processor sees it:
+ * a fresh MessageContext holding the inputs, then execute().
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecuteBenchmark {
+
+  @Param({"2048", "3072", "4096"})
+  public int keySize;
+
+  @Param({"16", "256"})
+  public int objectNameLength;
+
+  @Param({"0", "8"})
+  public int extraParams;
+
+  private String serviceAccountJson;
+  private String objectName;
+  private V2SignedUrlCallout v2Callout;
+  private V4SignedUrlCallout v4Callout;
+  private ExecutionContext exeCtxt;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    if (Security.getProvider("BC") == null) Security.addProvider(new BouncyCastleProvider());
+    serviceAccountJson = ServiceAccountKeys.generate(keySize);
+    objectName = ServiceAccountKeys.objectName(objectNameLength);
+    exeCtxt = MessageContexts.createExecutionContext();
+
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", "{private.service_account_key_json}");
+    props.put("verb", "GET");
+    props.put("bucket", "{request.formparam.bucket}");
+    props.put("object", "{request.formparam.object}");
+    props.put("expires-in", "10m");
+    v2Callout = new V2SignedUrlCallout(props);
+
+    props = new HashMap<String, String>(props);
+    if (extraParams > 0) {
+      props.put("addl-query", ServiceAccountKeys.additionalQuery(extraParams));
+      props.put("addl-headers", ServiceAccountKeys.additionalHeaders(extraParams));
+    }
+    v4Callout = new V4SignedUrlCallout(props);
+
+    // fail fast, rather than measuring the error path
+    execute(v2Callout);
+    execute(v4Callout);
+  }
+
+  private MessageContext newContext() {
+    MessageContext msgCtxt = MessageContexts.create();
+    msgCtxt.setVariable("private.service_account_key_json", serviceAccountJson);
+    msgCtxt.setVariable("request.formparam.bucket", "example-bucket");
+    msgCtxt.setVariable("request.formparam.object", objectName);
+    return msgCtxt;
+  }
+
+  private Object execute(SigningCalloutBase callout) {
+    MessageContext msgCtxt = newContext();
+    ExecutionResult result = ((Execution) callout).execute(msgCtxt, exeCtxt);
+    if (result != ExecutionResult.SUCCESS) {
+      throw new IllegalStateException("callout failed: " + msgCtxt.getVariable("sign_error"));
+    }
+    return msgCtxt.getVariable("sign_signedurl");
+  }
+
+  @Benchmark
+  public Object v2Execute() {
+    return execute(v2Callout);
+  }
+
+  @Benchmark
+  public Object v4Execute() {
+    return execute(v4Callout);
+  }
+}
@@ -0,0 +1,70 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts.rsa;
+
+import com.apigee.flow.execution.ExecutionContext;
+import com.apigee.flow.message.MessageContext;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Lightweight stand-ins for the Apigee runtime contexts. The MessageContext
+ * keeps flow variables in a HashMap; every other method returns null. These
+ * are dynamic proxies, so they do not depend on the full shape of the
+ * interfaces in the message-flow jar.
+ */
+public class MessageContexts {
+
+  public static MessageContext create() {
+    final Map<String, Object> variables = new HashMap<String, Object>();
+    return (MessageContext)
+        Proxy.newProxyInstance(
+            MessageContext.class.getClassLoader(),
+            new Class<?>[] {MessageContext.class},
+            (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "getVariable":
+                  return variables.get((String) args[0]);
+                case "setVariable":
+                  variables.put((String) args[0], args[1]);
+                  return true;
+                case "removeVariable":
+                  variables.remove((String) args[0]);
+                  return true;
+                case "hashCode":
+                  return System.identityHashCode(proxy);
+                case "equals":
+                  return proxy == args[0];
+                case "toString":
+                  return "MessageContext" + variables;
+                default:
+                  return null;
+              }
+            });
+  }
+
+  public static ExecutionContext createExecutionContext() {
+    return (ExecutionContext)
+        Proxy.newProxyInstance(
+            ExecutionContext.class.getClassLoader(),
+            new Class<?>[] {ExecutionContext.class},
+            (proxy, method, args) -> {
+              if (method.getReturnType() == boolean.class) return false;
+              return null;
+            });
+  }
+}
@@ -0,0 +1,136 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts.rsa;
+
+import com.apigee.flow.message.MessageContext;
+import java.security.KeyPair;
+import java.security.Security;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * The individual phases of an execution, each measured on its own so that a
+ * change to one phase shows up without the noise of the RSA operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PhaseBenchmark {
+
+  @Param({"2048", "3072", "4096"})
+  public int keySize;
+
+  @Param({"16", "256"})
+  public int objectNameLength;
+
+  @Param({"0", "8"})
+  public int extraParams;
+
+  private static final String stringToSign =
+      "GOOG4-RSA-SHA256\n"
+          + "20191024T224441Z\n"
+          + "20191024/us/storage/goog4_request\n"
+          + "1f3fa0d5a5a5c5fbd2bc8bc5d0a8a2b27d6f1d2b8b0f5f1a8b7f3b53d6e5a8c9";
+
+  private String serviceAccountJson;
+  private String privateKeyPem;
+  private KeyPair keyPair;
+  private SigningKey signingKey;
+  private V4SignedUrlCallout v4Callout;
+  private MessageContext msgCtxt;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    if (Security.getProvider("BC") == null) Security.addProvider(new BouncyCastleProvider());
+    serviceAccountJson = ServiceAccountKeys.generate(keySize);
+    Map<String, String> info = SigningCalloutBase.parseServiceAccountKey(serviceAccountJson);
+    privateKeyPem = info.get("private_key");
+    keyPair = SigningCalloutBase.readKeyPair(privateKeyPem, null);
+    signingKey = new SigningKey(info, null);
+    signingKey.getSigner();
+
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", "{private.service_account_key_json}");
+    props.put("verb", "GET");
+    props.put("bucket", "{request.formparam.bucket}");
+    props.put("object", "{request.formparam.object}");
+    props.put("expires-in", "10m");
+    if (extraParams > 0) {
+      props.put("addl-query", ServiceAccountKeys.additionalQuery(extraParams));
+      props.put("addl-headers", ServiceAccountKeys.additionalHeaders(extraParams));
+    }
+    v4Callout = new V4SignedUrlCallout(props);
+
+    msgCtxt = MessageContexts.create();
+    msgCtxt.setVariable("private.service_account_key_json", serviceAccountJson);
+    msgCtxt.setVariable("request.formparam.bucket", "example-bucket");
+    msgCtxt.setVariable(
+        "request.formparam.object", ServiceAccountKeys.objectName(objectNameLength));
+  }
+
+  @Benchmark
+  public Object getServiceAccountKey() throws Exception {
+    return v4Callout.getServiceAccountKey(msgCtxt);
+  }
+
+  @Benchmark
+  public Object readKeyPair() throws Exception {
+    return SigningCalloutBase.readKeyPair(privateKeyPem, null);
+  }
+
+  @Benchmark
+  public Object signRsaSha256() throws Exception {
+    return SigningCalloutBase.sign_RSA_SHA256(stringToSign, keyPair);
+  }
+
+  @Benchmark
+  public Object signWithCachedSigner() throws Exception {
+    return signingKey.getSigner().sign(stringToSign);
+  }
+
+  @Benchmark
+  public Object v4HashedCanonicalRequest() throws Exception {
+    return v4Callout.getHashedCanonicalRequest(msgCtxt, signingKey);
+  }
+
+  @Benchmark
+  public Object resolvePropertyValue() {
+    return SigningCalloutBase.resolvePropertyValue(
+        "/{request.formparam.bucket}/{request.formparam.object}", msgCtxt);
+  }
+
+  @Benchmark
+  public Object signingClockNow() {
+    return SigningClock.SYSTEM.now();
+  }
+}
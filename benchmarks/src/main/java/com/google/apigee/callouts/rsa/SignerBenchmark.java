@@ -0,0 +1,72 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.callouts.rsa;
+
+import java.security.Security;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * The RSA signature alone, for each signer backend, so that the choice made
+ * by the startup calibration can be checked against a proper measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignerBenchmark {
+
+  @Param({"2048", "4096"})
+  public int keySize;
+
+  @Param({"bc-lightweight", "jca-sun", "jca-bc"})
+  public String backend;
+
+  private static final String stringToSign =
+      "GOOG4-RSA-SHA256\n"
+          + "20191024T224441Z\n"
+          + "20191024/us/storage/goog4_request\n"
+          + "1f3fa0d5a5a5c5fbd2bc8bc5d0a8a2b27d6f1d2b8b0f5f1a8b7f3b53d6e5a8c9";
+
+  private Signer signer;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    if (Security.getProvider("BC") == null) Security.addProvider(new BouncyCastleProvider());
+    Map<String, String> info =
+        SigningCalloutBase.parseServiceAccountKey(ServiceAccountKeys.generate(keySize));
+    signer = new SigningKey(info, null).getSigner(SignerBackend.forName(backend));
+  }
+
+  @Benchmark
+  public Object sign() throws Exception {
+    return signer.sign(stringToSign);
+  }
+}
@@ -0,0 +1,183 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.cache;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * A bounded cache in which every entry carries its own expiry. Safe for use by
+ * many threads at once. When the cache is full, the entry that expires soonest
+ * is evicted. Concurrent misses on the same key share a single load.
+ */
+public class ExpiringCache<K, V> {
+
+  public interface Loader<K, V> {
+    V load(K key) throws Exception;
+  }
+
+  private static final class Entry<K, V> implements Comparable<Entry<K, V>> {
+    final K key;
+    final V value;
+    final long expiresAt;
+    final long sequence;
+
+    Entry(K key, V value, long expiresAt, long sequence) {
+      this.key = key;
+      this.value = value;
+      this.expiresAt = expiresAt;
+      this.sequence = sequence;
+    }
+
+    public int compareTo(Entry<K, V> other) {
+      int c = Long.compare(expiresAt, other.expiresAt);
+      return (c != 0) ? c : Long.compare(sequence, other.sequence);
+    }
+  }
+
+  private final int maxEntries;
+  private final long ttlMillis;
+  private final ConcurrentHashMap<K, Entry<K, V>> entries = new ConcurrentHashMap<>();
+  private final ConcurrentSkipListSet<Entry<K, V>> expiryOrder = new ConcurrentSkipListSet<>();
+  private final ConcurrentHashMap<K, FutureTask<V>> pending = new ConcurrentHashMap<>();
+  private final AtomicLong sequence = new AtomicLong();
+
+  public ExpiringCache(int maxEntries, long ttlMillis) {
+    if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries must be positive");
+    if (ttlMillis <= 0) throw new IllegalArgumentException("ttlMillis must be positive");
+    this.maxEntries = maxEntries;
+    this.ttlMillis = ttlMillis;
+  }
+
+  public int getMaxEntries() {
+    return maxEntries;
+  }
+
+  public long getTtlMillis() {
+    return ttlMillis;
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public V get(K key) {
+    return get(key, System.currentTimeMillis());
+  }
+
+  // As get(key), with the current time supplied by the caller.
+  public V get(K key, long nowMillis) {
+    Entry<K, V> entry = entries.get(key);
+    if (entry == null) return null;
+    if (entry.expiresAt <= nowMillis) {
+      discard(entry);
+      return null;
+    }
+    return entry.value;
+  }
+
+  /*
+   * Returns the cached value, or loads, caches and returns it. A failed load is
+   * not cached; the exception thrown by the loader propagates to every caller
+   * that was waiting on that load.
+   */
+  public V get(final K key, final Loader<K, V> loader) throws Exception {
+    V value = get(key);
+    if (value != null) return value;
+
+    FutureTask<V> task =
+        new FutureTask<V>(
+            () -> {
+              V loaded = loader.load(key);
+              if (loaded != null) put(key, loaded);
+              return loaded;
+            });
+    FutureTask<V> existing = pending.putIfAbsent(key, task);
+    if (existing == null) {
+      try {
+        task.run();
+      } finally {
+        pending.remove(key, task);
+      }
+      existing = task;
+    }
+
+    try {
+      return existing.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) throw (Exception) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw e;
+    }
+  }
+
+  public void put(K key, V value) {
+    put(key, value, System.currentTimeMillis() + ttlMillis);
+  }
+
+  public void put(K key, V value, long expiresAtMillis) {
+    put(key, value, expiresAtMillis, System.currentTimeMillis());
+  }
+
+  // As put(key, value, expiresAtMillis), with the current time supplied by the caller.
+  public void put(K key, V value, long expiresAtMillis, long nowMillis) {
+    Entry<K, V> entry = new Entry<K, V>(key, value, expiresAtMillis, sequence.incrementAndGet());
+    Entry<K, V> previous = entries.put(key, entry);
+    if (previous != null) expiryOrder.remove(previous);
+    expiryOrder.add(entry);
+    evict(nowMillis);
+  }
+
+  public void remove(K key) {
+    Entry<K, V> entry = entries.remove(key);
+    if (entry != null) expiryOrder.remove(entry);
+  }
+
+  public void clear() {
+    entries.clear();
+    expiryOrder.clear();
+  }
+
+  private void discard(Entry<K, V> entry) {
+    if (entries.remove(entry.key, entry)) expiryOrder.remove(entry);
+  }
+
+  private void evict(long now) {
+    Entry<K, V> head;
+    while ((head = firstOrNull()) != null && head.expiresAt <= now) {
+      expiryOrder.remove(head);
+      entries.remove(head.key, head);
+    }
+    while (entries.size() > maxEntries) {
+      head = expiryOrder.pollFirst();
+      if (head == null) break;
+      entries.remove(head.key, head);
+    }
+  }
+
+  private Entry<K, V> firstOrNull() {
+    try {
+      return expiryOrder.first();
+    } catch (NoSuchElementException e) {
+      return null;
+    }
+  }
+}
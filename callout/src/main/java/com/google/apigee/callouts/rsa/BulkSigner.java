@@ -0,0 +1,504 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.callouts.rsa;
+
+import com.google.apigee.encoding.PercentEncoder;
+import com.google.apigee.time.TimeResolver;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/*
+ * A command-line tool that signs URLs in bulk, outside Apigee, with the
+ * canonicalization and signing code of the callouts. The manifest has one
+ * object per line: the bucket, the object name, and optionally the verb,
+ * separated by tabs. It is read in chunks of whole lines, each mapped into
+ * memory only while its lines are signed. Chunks are signed in parallel, each
+ * thread with its own signer, and the signed URLs are written in manifest
+ * order, one per line, through a large buffer.
+ *
+ * Progress goes to stderr, with the manifest offset through which output has
+ * been written; it is reported each time the buffer is flushed and forced to
+ * disk. To resume after an interruption, pass that offset as --offset. The
+ * output is then cut to the URLs for the manifest lines before the offset,
+ * dropping any written after the last report, and appended to.
+ *
+ *   java -cp 'target/lib/*:target/apigee-google-signed-url-20210311.jar' \
+ *     com.google.apigee.callouts.rsa.BulkSigner \
+ *     --key sa.json --manifest objects.tsv --output urls.txt --expires-in 7d
+ */
+public final class BulkSigner {
+  static final String USAGE =
+      "usage: BulkSigner --key FILE --manifest FILE --output FILE [--version v4|v2]\n"
+          + "         [--expires-in 1h] [--verb GET] [--key-password PASSWORD]\n"
+          + "         [--signer auto|bc-lightweight|jca-sun|jca-bc] [--threads N]\n"
+          + "         [--offset BYTES] [--chunk-bytes BYTES] [--buffer-bytes BYTES]";
+  private static final int DEFAULT_CHUNK_BYTES = 1 << 20;
+  private static final int OUTPUT_BUFFER_BYTES = 8 << 20;
+  private static final long V4_MAX_EXPIRES_SECONDS = 604800;
+  private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+  static final class Options {
+    String version = "v4";
+    Path key;
+    String keyPassword;
+    Path manifest;
+    Path output;
+    String expiresIn = "1h";
+    String verb = "GET";
+    String signer;
+    int threads = Runtime.getRuntime().availableProcessors();
+    long offset = 0L;
+    int chunkBytes = DEFAULT_CHUNK_BYTES;
+    int bufferBytes = OUTPUT_BUFFER_BYTES;
+
+    static Options parse(String[] args) {
+      Options options = new Options();
+      for (int i = 0; i < args.length; i += 2) {
+        if (i + 1 == args.length) throw new IllegalStateException(args[i] + " needs a value");
+        String value = args[i + 1];
+        switch (args[i]) {
+          case "--version":
+            if (!value.equals("v4") && !value.equals("v2"))
+              throw new IllegalStateException("--version must be one of v4, v2");
+            options.version = value;
+            break;
+          case "--key":
+            options.key = Paths.get(value);
+            break;
+          case "--key-password":
+            options.keyPassword = value;
+            break;
+          case "--manifest":
+            options.manifest = Paths.get(value);
+            break;
+          case "--output":
+            options.output = Paths.get(value);
+            break;
+          case "--expires-in":
+            options.expiresIn = value;
+            break;
+          case "--verb":
+            options.verb = value;
+            break;
+          case "--signer":
+            options.signer = value;
+            break;
+          case "--threads":
+            options.threads = (int) parseNumber("--threads", value, 1, Integer.MAX_VALUE);
+            break;
+          case "--offset":
+            options.offset = parseNumber("--offset", value, 0, Long.MAX_VALUE);
+            break;
+          case "--chunk-bytes":
+            options.chunkBytes = (int) parseNumber("--chunk-bytes", value, 1, Integer.MAX_VALUE);
+            break;
+          case "--buffer-bytes":
+            options.bufferBytes =
+                (int) parseNumber("--buffer-bytes", value, 1, Integer.MAX_VALUE);
+            break;
+          default:
+            throw new IllegalStateException("unknown option " + args[i]);
+        }
+      }
+      if (options.key == null || options.manifest == null || options.output == null)
+        throw new IllegalStateException("--key, --manifest and --output are required");
+      return options;
+    }
+
+    private static long parseNumber(String name, String value, long min, long max) {
+      try {
+        long result = Long.parseLong(value);
+        if (result >= min && result <= max) return result;
+      } catch (NumberFormatException e) {
+        // fall through
+      }
+      throw new IllegalStateException(
+          name + ((min > 0) ? " must be a positive integer" : " must be a non-negative integer"));
+    }
+  }
+
+  static final class Result {
+    long urls;
+    long nextOffset;
+    long elapsedNanos;
+
+    double urlsPerSecond() {
+      return (elapsedNanos == 0L) ? 0.0 : urls * 1e9 / elapsedNanos;
+    }
+  }
+
+  private static final class ChunkResult {
+    final long end;
+    final int urls;
+    final byte[] bytes;
+
+    ChunkResult(long end, int urls, byte[] bytes) {
+      this.end = end;
+      this.urls = urls;
+      this.bytes = bytes;
+    }
+  }
+
+  private final Options options;
+  private final PrintStream progress;
+  private final SigningClock.Tick now;
+  private final long expiration;
+  private final String clientEmail;
+  private final ThreadLocal<Signer> signers;
+  // the canonical query for V4, or the expiration for V2; the same for every line
+  private final String canonicalQuery;
+  private final V4SignedUrlCallout.CanonicalHeaders canonicalHeaders;
+  // per verb: V4 request templates, V2 signing-base prefixes
+  private final Map<String, V4SignedUrlCallout.RequestTemplate> templates =
+      new ConcurrentHashMap<String, V4SignedUrlCallout.RequestTemplate>();
+  private final Map<String, String> signingBasePrefixes = new ConcurrentHashMap<String, String>();
+
+  BulkSigner(Options options, SigningClock clock, PrintStream progress) throws Exception {
+    this.options = options;
+    this.progress = progress;
+    this.now = clock.now();
+    long expiresIn = TimeResolver.resolveExpression(options.expiresIn);
+    if (expiresIn <= 0) throw new IllegalStateException("--expires-in is invalid");
+    boolean v4 = options.version.equals("v4");
+    if (v4 && expiresIn > V4_MAX_EXPIRES_SECONDS)
+      throw new IllegalStateException("--expires-in must be at most 7d for v4");
+    this.expiration = now.getEpochSecond() + expiresIn;
+
+    SigningKey key =
+        SigningCalloutBase.cachedServiceAccountKey(
+            new String(Files.readAllBytes(options.key), StandardCharsets.UTF_8).trim(),
+            options.keyPassword);
+    this.clientEmail = key.getClientEmail();
+    final PrivateKey privateKey = key.getKeyPair().getPrivate();
+    SignerBackend chosen = SignerBackend.forName(options.signer);
+    final SignerBackend backend = (chosen != null) ? chosen : SignerBackend.fastestNow(privateKey);
+    this.signers =
+        ThreadLocal.withInitial(
+            () -> {
+              try {
+                return backend.create(privateKey);
+              } catch (Exception e) {
+                throw new IllegalStateException("cannot create a signer", e);
+              }
+            });
+
+    if (v4) {
+      this.canonicalHeaders =
+          V4SignedUrlCallout.canonicalizeHeaders(Collections.<String, String>emptyMap());
+      Map<String, String> query = new TreeMap<String, String>();
+      query.put("X-Goog-Algorithm", SigningCredential.RSA_ALGORITHM);
+      query.put("X-Goog-Credential", clientEmail + "/" + now.getCredentialScope());
+      query.put("X-Goog-Date", now.getTimestamp());
+      query.put("X-Goog-Expires", Long.toString(expiresIn));
+      query.put("X-Goog-SignedHeaders", canonicalHeaders.signedHeaders);
+      this.canonicalQuery = V4SignedUrlCallout.queryToString(query);
+    } else {
+      this.canonicalHeaders = null;
+      this.canonicalQuery = Long.toString(expiration);
+    }
+  }
+
+  private V4SignedUrlCallout.RequestTemplate template(String verb) {
+    return templates.computeIfAbsent(
+        verb,
+        v -> {
+          V4SignedUrlCallout.RequestTemplate template = new V4SignedUrlCallout.RequestTemplate();
+          template.algorithm = SigningCredential.RSA_ALGORITHM;
+          template.verb = v;
+          template.canonicalQueryString = canonicalQuery;
+          template.canonicalHeadersString = canonicalHeaders.canonicalHeadersString;
+          template.signedHeaders = canonicalHeaders.signedHeaders;
+          template.expiration = expiration;
+          return template;
+        });
+  }
+
+  private String sign(String verb, String resource, Signer signer) throws Exception {
+    if (canonicalHeaders == null) {
+      String prefix =
+          signingBasePrefixes.computeIfAbsent(
+              verb, v -> V2SignedUrlCallout.signingBasePrefix(v, null, null, canonicalQuery));
+      return SignedUrl.v2(resource, clientEmail, canonicalQuery, signer.sign(prefix + resource))
+          .getUrl();
+    }
+    V4SignedUrlCallout.RequestTemplate template = template(verb);
+    String stringToSign =
+        V4SignedUrlCallout.stringToSign(
+            template.algorithm,
+            now.getTimestamp(),
+            now.getCredentialScope(),
+            template.hashedCanonicalRequest(resource));
+    return SignedUrl.v4(resource, canonicalQuery, signer.sign(stringToSign)).getUrl();
+  }
+
+  // bucket TAB object [TAB verb]
+  private void signLine(String line, long lineOffset, Signer signer, StringBuilder out)
+      throws Exception {
+    String[] fields = line.split("\t", -1);
+    if (fields.length < 2 || fields.length > 3 || fields[0].isEmpty() || fields[1].isEmpty())
+      throw new IllegalStateException("the manifest line at offset " + lineOffset + " is invalid");
+    String verb = (fields.length == 3 && !fields[2].isEmpty()) ? fields[2] : options.verb;
+    String resource = "/" + fields[0] + "/" + PercentEncoder.PATH.encode(fields[1]);
+    out.append(sign(verb, resource, signer)).append('\n');
+  }
+
+  private ChunkResult signChunk(FileChannel manifest, long start, long end) throws Exception {
+    MappedByteBuffer mapped = manifest.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    Signer signer = signers.get();
+    StringBuilder out = new StringBuilder();
+    byte[] line = new byte[256];
+    int length = 0;
+    int urls = 0;
+    long lineOffset = start;
+    for (int i = 0, limit = mapped.limit(); i <= limit; i++) {
+      byte b = (i < limit) ? mapped.get(i) : (byte) '\n';
+      if (b != '\n') {
+        if (length == line.length) line = Arrays.copyOf(line, length * 2);
+        line[length++] = b;
+        continue;
+      }
+      if (length > 0 && line[length - 1] == '\r') length--;
+      if (length > 0) {
+        signLine(new String(line, 0, length, StandardCharsets.UTF_8), lineOffset, signer, out);
+        urls++;
+      }
+      length = 0;
+      lineOffset = start + i + 1;
+    }
+    return new ChunkResult(end, urls, out.toString().getBytes(StandardCharsets.US_ASCII));
+  }
+
+  // Just past the first newline at or after start + chunkBytes, or the end of the file.
+  private long chunkEnd(FileChannel manifest, long start, long size) throws IOException {
+    long position = start + options.chunkBytes;
+    ByteBuffer probe = ByteBuffer.allocate(4096);
+    while (position < size) {
+      probe.clear();
+      int n = manifest.read(probe, position);
+      if (n <= 0) break;
+      for (int i = 0; i < n; i++) {
+        if (probe.get(i) == '\n') return position + i + 1;
+      }
+      position += n;
+    }
+    return size;
+  }
+
+  private static void writeFully(FileChannel output, ByteBuffer bytes) throws IOException {
+    while (bytes.hasRemaining()) output.write(bytes);
+  }
+
+  /*
+   * Writes out the buffer and forces the output to disk; only then is the
+   * manifest offset that the output now covers recorded and reported.
+   */
+  private void commit(
+      FileChannel output, ByteBuffer buffer, Result result, long end, long startNanos)
+      throws IOException {
+    buffer.flip();
+    writeFully(output, buffer);
+    buffer.clear();
+    output.force(false);
+    result.nextOffset = end;
+    report(result, startNanos, false);
+  }
+
+  // The number of URLs for the manifest lines before end: one per non-empty line.
+  private static long countUrls(FileChannel manifest, long end) throws IOException {
+    ByteBuffer chunk = ByteBuffer.allocate(64 * 1024);
+    long urls = 0L;
+    int length = 0;
+    byte last = 0;
+    for (long position = 0L; position < end; ) {
+      chunk.clear();
+      chunk.limit((int) Math.min(chunk.capacity(), end - position));
+      int n = manifest.read(chunk, position);
+      if (n <= 0) break;
+      for (int i = 0; i < n; i++) {
+        byte b = chunk.get(i);
+        if (b == '\n') {
+          if (length > 1 || (length == 1 && last != '\r')) urls++;
+          length = 0;
+        } else {
+          length++;
+          last = b;
+        }
+      }
+      position += n;
+    }
+    return urls;
+  }
+
+  // The length of the first urls lines of the output.
+  private static long outputLength(FileChannel output, long urls) throws IOException {
+    if (urls == 0L) return 0L;
+    ByteBuffer chunk = ByteBuffer.allocate(64 * 1024);
+    long lines = 0L;
+    for (long position = 0L, size = output.size(); position < size; ) {
+      chunk.clear();
+      int n = output.read(chunk, position);
+      if (n <= 0) break;
+      for (int i = 0; i < n; i++) {
+        if (chunk.get(i) == '\n' && ++lines == urls) return position + i + 1;
+      }
+      position += n;
+    }
+    throw new IllegalStateException(
+        "the output holds fewer URLs than the manifest lines before --offset");
+  }
+
+  private void report(Result result, long startNanos, boolean done) {
+    result.elapsedNanos = System.nanoTime() - startNanos;
+    progress.printf(
+        "%s %d urls in %.1f s, %.0f urls/s; next offset %d%n",
+        done ? "signed" : "signing:",
+        result.urls,
+        result.elapsedNanos / 1e9,
+        result.urlsPerSecond(),
+        result.nextOffset);
+  }
+
+  Result run() throws Exception {
+    long startNanos = System.nanoTime();
+    long lastReport = startNanos;
+    Result result = new Result();
+    result.nextOffset = options.offset;
+    ExecutorService pool =
+        Executors.newFixedThreadPool(
+            options.threads,
+            r -> {
+              Thread thread = new Thread(r, "bulk-signer");
+              thread.setDaemon(true);
+              return thread;
+            });
+    try (FileChannel manifest = FileChannel.open(options.manifest, StandardOpenOption.READ);
+        FileChannel output =
+            FileChannel.open(
+                options.output,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+      long size = manifest.size();
+      if (options.offset > size) throw new IllegalStateException("--offset is past the end");
+      if (options.offset > 0) {
+        ByteBuffer previous = ByteBuffer.allocate(1);
+        manifest.read(previous, options.offset - 1);
+        if (previous.get(0) != '\n')
+          throw new IllegalStateException("--offset must be the start of a line");
+      }
+      // keep exactly one URL per manifest line before the offset
+      long outputStart = outputLength(output, countUrls(manifest, options.offset));
+      output.truncate(outputStart);
+      output.position(outputStart);
+      ByteBuffer buffer = ByteBuffer.allocateDirect(options.bufferBytes);
+      // at most two chunks per thread in flight, so memory stays bounded
+      ArrayDeque<Future<ChunkResult>> pending = new ArrayDeque<Future<ChunkResult>>();
+      long position = options.offset;
+      // the end of the last chunk whose URLs are in the buffer or the file
+      long buffered = options.offset;
+      try {
+        while (position < size || !pending.isEmpty()) {
+          if (position < size && pending.size() < options.threads * 2) {
+            final long start = position;
+            final long end = chunkEnd(manifest, start, size);
+            pending.add(pool.submit(() -> signChunk(manifest, start, end)));
+            position = end;
+            continue;
+          }
+          ChunkResult chunk = pending.remove().get();
+          if (chunk.bytes.length > buffer.remaining() && buffer.position() > 0) {
+            commit(output, buffer, result, buffered, startNanos);
+            lastReport = System.nanoTime();
+          }
+          if (chunk.bytes.length > buffer.capacity()) {
+            writeFully(output, ByteBuffer.wrap(chunk.bytes));
+            buffered = chunk.end;
+            result.urls += chunk.urls;
+            commit(output, buffer, result, buffered, startNanos);
+            lastReport = System.nanoTime();
+            continue;
+          }
+          buffer.put(chunk.bytes);
+          buffered = chunk.end;
+          result.urls += chunk.urls;
+          if (System.nanoTime() - lastReport > PROGRESS_INTERVAL_NANOS) {
+            commit(output, buffer, result, buffered, startNanos);
+            lastReport = System.nanoTime();
+          }
+        }
+        buffer.flip();
+        writeFully(output, buffer);
+        output.force(false);
+        result.nextOffset = buffered;
+      } catch (ExecutionException e) {
+        // keep what was signed, and say where to resume
+        commit(output, buffer, result, buffered, startNanos);
+        Throwable cause = e.getCause();
+        throw (cause instanceof Exception) ? (Exception) cause : e;
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    report(result, startNanos, true);
+    return result;
+  }
+
+  public static void main(String[] args) {
+    BulkSigner signer;
+    try {
+      if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+        Security.addProvider(new BouncyCastleProvider());
+      }
+      signer = new BulkSigner(Options.parse(args), SigningClock.SYSTEM, System.err);
+    } catch (IllegalStateException e) {
+      System.err.println("error: " + e.getMessage());
+      System.err.println(USAGE);
+      System.exit(2);
+      return;
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.exit(1);
+      return;
+    }
+    try {
+      signer.run();
+    } catch (Exception e) {
+      System.err.println("error: " + e.getMessage());
+      System.exit(1);
+    }
+  }
+}
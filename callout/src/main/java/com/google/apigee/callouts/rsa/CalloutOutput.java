@@ -0,0 +1,80 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts.rsa;
+
+import com.apigee.flow.message.MessageContext;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+
+/*
+ * The output of one execution. Each output is written only when the
+ * configured level includes it: MINIMAL writes the signed URL(s) and
+ * anything explicitly requested, like timings; STANDARD adds the
+ * intermediate values the callouts have always written; DEBUG adds the
+ * canonical request. In the json format, outputs are collected and written
+ * as one object, in sign_result, when the execution finishes. Errors are
+ * not outputs; they are always written as variables.
+ */
+public final class CalloutOutput {
+  public enum Level {
+    MINIMAL,
+    STANDARD,
+    DEBUG
+  }
+
+  private final MessageContext msgCtxt;
+  private final Level level;
+  private final Map<String, Object> collected;
+
+  CalloutOutput(MessageContext msgCtxt, Level level, boolean json) {
+    this.msgCtxt = msgCtxt;
+    this.level = level;
+    this.collected = json ? new LinkedHashMap<String, Object>() : null;
+  }
+
+  // Whether an output at this level will be written; use it to skip building costly values.
+  public boolean wants(Level required) {
+    return required.compareTo(level) <= 0;
+  }
+
+  public void set(Level required, String name, Object value) {
+    if (required.compareTo(level) > 0) return;
+    if (collected != null) {
+      collected.put(name, value);
+    } else {
+      // JSON values are written as their text, as they always have been
+      if (value instanceof JsonValue) value = value.toString();
+      msgCtxt.setVariable(SigningCalloutBase.varName(name), value);
+    }
+  }
+
+  public void finish() {
+    if (collected == null) return;
+    JsonObjectBuilder builder = Json.createObjectBuilder();
+    for (Map.Entry<String, Object> entry : collected.entrySet()) {
+      Object value = entry.getValue();
+      if (value instanceof JsonValue) {
+        builder.add(entry.getKey(), (JsonValue) value);
+      } else {
+        builder.add(entry.getKey(), String.valueOf(value));
+      }
+    }
+    msgCtxt.setVariable(SigningCalloutBase.varName("result"), builder.build().toString());
+  }
+}
@@ -0,0 +1,111 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts.rsa;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+
+/*
+ * Computes the SHA-256 of a canonical request as it is written, encoding the
+ * text to UTF-8 through a small reusable buffer, so that the canonical request
+ * never exists as one String or byte array. Optionally keeps a copy of the
+ * text, for diagnostics. One instance per thread; not thread safe.
+ */
+public final class CanonicalRequestDigest {
+  private static final int BUFFER_SIZE = 512;
+  private static final ThreadLocal<CanonicalRequestDigest> perThread =
+      ThreadLocal.withInitial(CanonicalRequestDigest::new);
+
+  private final SHA256Digest digest = new SHA256Digest();
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private final byte[] hash = new byte[32];
+  private int position;
+  private StringBuilder copy;
+
+  private CanonicalRequestDigest() {}
+
+  public static CanonicalRequestDigest forCurrentThread() {
+    return perThread.get();
+  }
+
+  public CanonicalRequestDigest reset(boolean keepCopy) {
+    digest.reset();
+    position = 0;
+    copy = keepCopy ? new StringBuilder(512) : null;
+    return this;
+  }
+
+  public CanonicalRequestDigest append(char c) {
+    if (c < 0x80 && position < BUFFER_SIZE) {
+      buffer[position++] = (byte) c;
+      if (copy != null) copy.append(c);
+      return this;
+    }
+    return append(String.valueOf(c));
+  }
+
+  public CanonicalRequestDigest append(String s) {
+    int length = s.length();
+    for (int i = 0; i < length; i++) {
+      if (position > BUFFER_SIZE - 4) flush();
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        buffer[position++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[position++] = (byte) (0xC0 | (c >> 6));
+        buffer[position++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        if (Character.isHighSurrogate(c)
+            && i + 1 < length
+            && Character.isLowSurrogate(s.charAt(i + 1))) {
+          int cp = Character.toCodePoint(c, s.charAt(++i));
+          buffer[position++] = (byte) (0xF0 | (cp >> 18));
+          buffer[position++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+          buffer[position++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+          buffer[position++] = (byte) (0x80 | (cp & 0x3F));
+        } else {
+          // unpaired surrogate; String.getBytes(UTF_8) does the same
+          buffer[position++] = (byte) '?';
+        }
+      } else {
+        buffer[position++] = (byte) (0xE0 | (c >> 12));
+        buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+    if (copy != null) copy.append(s);
+    return this;
+  }
+
+  private void flush() {
+    digest.update(buffer, 0, position);
+    position = 0;
+  }
+
+  /*
+   * Completes the digest. The returned array is reused by the next call on
+   * this thread, so consume it before hashing anything else.
+   */
+  public byte[] finish() {
+    flush();
+    digest.doFinal(hash, 0);
+    return hash;
+  }
+
+  // The text that was hashed, or null if reset(false) was used.
+  public String getCanonicalRequest() {
+    return (copy != null) ? copy.toString() : null;
+  }
+}
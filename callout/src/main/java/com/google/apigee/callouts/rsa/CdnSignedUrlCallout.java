@@ -0,0 +1,188 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.callouts.rsa;
+
+import com.apigee.flow.execution.ExecutionContext;
+import com.apigee.flow.execution.ExecutionResult;
+import com.apigee.flow.execution.IOIntensive;
+import com.apigee.flow.execution.spi.Execution;
+import com.apigee.flow.message.MessageContext;
+import com.google.apigee.cache.ExpiringCache;
+import com.google.apigee.callouts.rsa.CalloutOutput.Level;
+import com.google.apigee.metrics.PhaseTimer;
+import com.google.apigee.metrics.SigningMetrics.Phase;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+/*
+ * Signs requests for content served through Cloud CDN, with a signed request
+ * key: a key name, and a 128-bit key. There are three modes:
+ *
+ *   url     a signed URL for one URL, with Expires, KeyName and Signature
+ *   prefix  a signature for every URL under a prefix, as query parameters
+ *   cookie  a signed cookie for every URL under a prefix
+ *
+ * Each signature is an HMAC-SHA1, in URL-safe base64, over the URL or the
+ * encoded prefix, the expiry and the key name.
+ */
+@IOIntensive
+public class CdnSignedUrlCallout extends SigningCalloutBase implements Execution {
+  private static final String COOKIE_NAME = "Cloud-CDN-Cookie";
+  private static final int KEY_CACHE_MAX_ENTRIES = 100;
+  private static final long KEY_CACHE_TTL_MILLIS = 60L * 60 * 1000;
+  private static final ExpiringCache<String, HmacSha1Signer> keyCache =
+      new ExpiringCache<String, HmacSha1Signer>(KEY_CACHE_MAX_ENTRIES, KEY_CACHE_TTL_MILLIS);
+
+  public CdnSignedUrlCallout(Map properties) {
+    this(properties, SigningClock.SYSTEM);
+  }
+
+  public CdnSignedUrlCallout(Map properties, SigningClock clock) {
+    super(properties, clock);
+  }
+
+  // Each thread keeps an HMac initialized with the key.
+  private static final class HmacSha1Signer implements Signer {
+    private final ThreadLocal<HMac> macs;
+
+    HmacSha1Signer(byte[] key) {
+      this.macs =
+          ThreadLocal.withInitial(
+              () -> {
+                HMac mac = new HMac(new SHA1Digest());
+                mac.init(new KeyParameter(key));
+                return mac;
+              });
+    }
+
+    @Override
+    public byte[] sign(byte[] message, int offset, int length) {
+      HMac mac = macs.get();
+      mac.update(message, offset, length);
+      byte[] result = new byte[mac.getMacSize()];
+      mac.doFinal(result, 0);
+      return result;
+    }
+  }
+
+  // The key property holds the key in URL-safe base64, as Cloud CDN shows it.
+  // The cache is keyed by a hash of the key, not the key itself.
+  private Signer getSigner(final MessageContext msgCtxt) throws Exception {
+    final String key = getSimpleRequiredProperty("key", msgCtxt);
+    return keyCache.get(
+        sha256Hex(key),
+        k -> {
+          try {
+            return new HmacSha1Signer(Base64.getUrlDecoder().decode(key.trim()));
+          } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("the key is not valid base64url");
+          }
+        });
+  }
+
+  private static String encode(byte[] bytes) {
+    return Base64.getUrlEncoder().encodeToString(bytes);
+  }
+
+  private static String signUrl(Signer signer, String url, long expiry, String keyName)
+      throws Exception {
+    String toSign =
+        url + (url.indexOf('?') >= 0 ? '&' : '?') + "Expires=" + expiry + "&KeyName=" + keyName;
+    return toSign + "&Signature=" + encode(signer.sign(toSign));
+  }
+
+  // URLPrefix=...&Expires=...&KeyName=...&Signature=..., or the same with colons
+  private static String signPrefix(
+      Signer signer, String urlPrefix, long expiry, String keyName, char separator)
+      throws Exception {
+    String toSign =
+        "URLPrefix="
+            + encode(urlPrefix.getBytes(StandardCharsets.UTF_8))
+            + separator
+            + "Expires="
+            + expiry
+            + separator
+            + "KeyName="
+            + keyName;
+    return toSign + separator + "Signature=" + encode(signer.sign(toSign));
+  }
+
+  public ExecutionResult execute(final MessageContext msgCtxt, final ExecutionContext execContext) {
+    PhaseTimer timer = startTimer();
+    try {
+      CalloutOutput out = newOutput(msgCtxt);
+      String mode = getSimpleOptionalProperty("mode", msgCtxt);
+      if (mode == null) mode = "url";
+      String keyName = getSimpleRequiredProperty("key-name", msgCtxt);
+      long expiry = getExpiry(msgCtxt, out, clock.now().getEpochSecond(), 0);
+      timer.mark(Phase.PROPERTIES);
+      Signer signer = getSigner(msgCtxt);
+      timer.mark(Phase.KEY);
+      switch (mode) {
+        case "url":
+          {
+            String url = getSimpleRequiredProperty("url", msgCtxt);
+            timer.mark(Phase.PROPERTIES);
+            out.set(Level.MINIMAL, "signedurl", signUrl(signer, url, expiry, keyName));
+            timer.mark(Phase.SIGN);
+            break;
+          }
+        case "prefix":
+          {
+            String urlPrefix = getSimpleRequiredProperty("url-prefix", msgCtxt);
+            String url = getSimpleOptionalProperty("url", msgCtxt);
+            timer.mark(Phase.PROPERTIES);
+            String query = signPrefix(signer, urlPrefix, expiry, keyName, '&');
+            timer.mark(Phase.SIGN);
+            out.set(Level.MINIMAL, "signed_query", query);
+            if (url != null) {
+              out.set(
+                  Level.MINIMAL, "signedurl", url + (url.indexOf('?') >= 0 ? '&' : '?') + query);
+            }
+            timer.mark(Phase.ASSEMBLE);
+            break;
+          }
+        case "cookie":
+          {
+            String urlPrefix = getSimpleRequiredProperty("url-prefix", msgCtxt);
+            timer.mark(Phase.PROPERTIES);
+            String value = signPrefix(signer, urlPrefix, expiry, keyName, ':');
+            timer.mark(Phase.SIGN);
+            out.set(Level.MINIMAL, "cookie", COOKIE_NAME + "=" + value);
+            timer.mark(Phase.ASSEMBLE);
+            break;
+          }
+        default:
+          throw new IllegalStateException("mode must be one of url, prefix, cookie");
+      }
+      finishTimer(timer, msgCtxt, out, null);
+      out.finish();
+      return ExecutionResult.SUCCESS;
+    } catch (IllegalStateException exc1) {
+      setExceptionVariables(exc1, msgCtxt);
+      finishTimer(timer, msgCtxt, null, exc1);
+      return ExecutionResult.ABORT;
+    } catch (Exception e) {
+      setExceptionVariables(e, msgCtxt);
+      msgCtxt.setVariable(varName("stacktrace"), exceptionStackTrace(e));
+      finishTimer(timer, msgCtxt, null, e);
+      return ExecutionResult.ABORT;
+    }
+  }
+}
@@ -0,0 +1,62 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.callouts.rsa;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Stops calls to a failing dependency. After failureThreshold consecutive
+ * failures the breaker opens, and allowRequest() returns false for openMillis.
+ * Then one trial call is let through: success closes the breaker, failure
+ * opens it again. Safe for use by many threads at once.
+ */
+public class CircuitBreaker {
+  private final int failureThreshold;
+  private final long openMillis;
+  private final AtomicInteger consecutiveFailures = new AtomicInteger();
+  // zero while closed; else the time at which the next trial call may go
+  private final AtomicLong openUntil = new AtomicLong();
+
+  public CircuitBreaker(int failureThreshold, long openMillis) {
+    if (failureThreshold <= 0)
+      throw new IllegalArgumentException("failureThreshold must be positive");
+    this.failureThreshold = failureThreshold;
+    this.openMillis = openMillis;
+  }
+
+  public boolean isOpen() {
+    return openUntil.get() != 0L;
+  }
+
+  public boolean allowRequest() {
+    long until = openUntil.get();
+    if (until == 0L) return true;
+    long now = System.currentTimeMillis();
+    // one thread wins the trial; the others wait out another period
+    return now >= until && openUntil.compareAndSet(until, now + openMillis);
+  }
+
+  public void recordSuccess() {
+    consecutiveFailures.set(0);
+    openUntil.set(0L);
+  }
+
+  public void recordFailure() {
+    if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+      openUntil.set(System.currentTimeMillis() + openMillis);
+    }
+  }
+}
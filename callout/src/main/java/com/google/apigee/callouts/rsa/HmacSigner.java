@@ -0,0 +1,89 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.callouts.rsa;
+
+import com.google.apigee.cache.ExpiringCache;
+import java.nio.charset.StandardCharsets;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+/*
+ * A Signer for GOOG4-HMAC-SHA256, with the signing key derived from an HMAC
+ * secret for one date and region:
+ *
+ *   kDate    = HMAC("GOOG4" + secret, date)
+ *   kRegion  = HMAC(kDate, region)
+ *   kService = HMAC(kRegion, "storage")
+ *   kSigning = HMAC(kService, "goog4_request")
+ *
+ * Signers are cached per (secret, date, region), and each thread keeps an HMac
+ * initialized with the derived key, so a signature costs one HMAC of the
+ * string-to-sign. Safe for use by many threads at once.
+ */
+public class HmacSigner implements Signer {
+  private static final int CACHE_MAX_ENTRIES = 1000;
+  // a little over one day, the lifetime of a derived key
+  private static final long CACHE_TTL_MILLIS = 25L * 60 * 60 * 1000;
+  private static final ExpiringCache<String, HmacSigner> cache =
+      new ExpiringCache<String, HmacSigner>(CACHE_MAX_ENTRIES, CACHE_TTL_MILLIS);
+
+  private final byte[] signingKey;
+  private final ThreadLocal<HMac> macs;
+
+  HmacSigner(String secret, String dateStamp, String region) {
+    byte[] key = ("GOOG4" + secret).getBytes(StandardCharsets.UTF_8);
+    key = hmac(key, dateStamp);
+    key = hmac(key, region);
+    key = hmac(key, "storage");
+    this.signingKey = hmac(key, "goog4_request");
+    this.macs =
+        ThreadLocal.withInitial(
+            () -> {
+              HMac mac = new HMac(new SHA256Digest());
+              mac.init(new KeyParameter(signingKey));
+              return mac;
+            });
+  }
+
+  // The signer for the secret on the date (yyyyMMdd), in the region. The
+  // cache is keyed by a hash of the secret, not the secret itself.
+  public static HmacSigner forScope(String secret, String dateStamp, String region)
+      throws Exception {
+    return cache.get(
+        dateStamp + "/" + region + "/" + SigningCalloutBase.sha256Hex(secret),
+        k -> new HmacSigner(secret, dateStamp, region));
+  }
+
+  private static byte[] hmac(byte[] key, String data) {
+    HMac mac = new HMac(new SHA256Digest());
+    mac.init(new KeyParameter(key));
+    byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+    mac.update(bytes, 0, bytes.length);
+    byte[] result = new byte[mac.getMacSize()];
+    mac.doFinal(result, 0);
+    return result;
+  }
+
+  @Override
+  public byte[] sign(byte[] message, int offset, int length) {
+    // doFinal leaves the mac reset, ready for the next message
+    HMac mac = macs.get();
+    mac.update(message, offset, length);
+    byte[] result = new byte[mac.getMacSize()];
+    mac.doFinal(result, 0);
+    return result;
+  }
+}
@@ -0,0 +1,66 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.callouts.rsa;
+
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.Signature;
+
+/*
+ * A Signer that uses SHA256withRSA from a JCA provider. Each thread keeps its
+ * own Signature, initialized once with the key; Signature.sign() resets it
+ * for the next use.
+ */
+public class JcaSigner implements Signer {
+  private static final String ALGORITHM = "SHA256withRSA";
+  private final ThreadLocal<Signature> signatures;
+
+  public JcaSigner(PrivateKey privateKey, Provider provider) throws GeneralSecurityException {
+    // fail now, rather than on first use by some other thread
+    final Signature first = newSignature(privateKey, provider);
+    this.signatures =
+        new ThreadLocal<Signature>() {
+          private boolean firstTaken;
+
+          @Override
+          protected synchronized Signature initialValue() {
+            if (!firstTaken) {
+              firstTaken = true;
+              return first;
+            }
+            try {
+              return newSignature(privateKey, provider);
+            } catch (GeneralSecurityException e) {
+              throw new IllegalStateException("cannot initialize the signer", e);
+            }
+          }
+        };
+  }
+
+  private static Signature newSignature(PrivateKey privateKey, Provider provider)
+      throws GeneralSecurityException {
+    Signature signature = Signature.getInstance(ALGORITHM, provider);
+    signature.initSign(privateKey);
+    return signature;
+  }
+
+  @Override
+  public byte[] sign(byte[] message, int offset, int length) throws GeneralSecurityException {
+    Signature signature = signatures.get();
+    signature.update(message, offset, length);
+    return signature.sign();
+  }
+}
@@ -0,0 +1,96 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts.rsa;
+
+import com.apigee.flow.message.MessageContext;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * A property value, parsed once into literal segments and variable
+ * references. A reference is a variable name in curlies, eg {apiproxy.name};
+ * the name may not contain curlies or spaces. Anything else, including a curly
+ * that does not begin a valid reference, is literal text. Resolving a
+ * template that has no references returns the literal value without touching
+ * the message context.
+ */
+public final class PropertyTemplate {
+  private final String[] literals; // one more than the number of references
+  private final String[] variableNames;
+  private final String constant;
+  private final int literalLength;
+
+  private PropertyTemplate(List<String> literals, List<String> variableNames) {
+    this.literals = literals.toArray(new String[0]);
+    this.variableNames = variableNames.toArray(new String[0]);
+    this.constant = (this.variableNames.length == 0) ? this.literals[0] : null;
+    int length = 0;
+    for (String literal : this.literals) length += literal.length();
+    this.literalLength = length;
+  }
+
+  public static PropertyTemplate compile(String spec) {
+    List<String> literals = new ArrayList<String>();
+    List<String> variableNames = new ArrayList<String>();
+    StringBuilder literal = new StringBuilder();
+    int length = spec.length();
+    int i = 0;
+    while (i < length) {
+      char c = spec.charAt(i);
+      if (c == '{') {
+        int j = i + 1;
+        while (j < length) {
+          char d = spec.charAt(j);
+          if (d == '{' || d == '}' || d == ' ') break;
+          j++;
+        }
+        if (j > i + 1 && j < length && spec.charAt(j) == '}') {
+          literals.add(literal.toString());
+          literal.setLength(0);
+          variableNames.add(spec.substring(i + 1, j));
+          i = j + 1;
+          continue;
+        }
+      }
+      literal.append(c);
+      i++;
+    }
+    literals.add(literal.toString());
+    return new PropertyTemplate(literals, variableNames);
+  }
+
+  public boolean isLiteral() {
+    return constant != null;
+  }
+
+  public String getLiteralValue() {
+    return constant;
+  }
+
+  public String resolve(MessageContext msgCtxt) {
+    if (constant != null) return constant;
+    StringBuilder sb = new StringBuilder(literalLength + 16 * variableNames.length);
+    for (int i = 0; i < variableNames.length; i++) {
+      sb.append(literals[i]);
+      Object v = msgCtxt.getVariable(variableNames[i]);
+      if (v != null) {
+        sb.append((String) v);
+      }
+    }
+    sb.append(literals[variableNames.length]);
+    return sb.toString();
+  }
+}
@@ -0,0 +1,260 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.callouts.rsa;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+/*
+ * A Signer that asks a remote service to sign, for service accounts whose
+ * private keys must not leave that service. The single endpoint follows the
+ * IAM signBlob method: it takes {"payload": base64} and returns
+ * {"signedBlob": base64}. An optional batch endpoint takes
+ * {"payloads": [base64, ...]} and returns {"signedBlobs": [base64, ...]},
+ * in the same order.
+ *
+ * Connections are HTTP keep-alive, reused through the JDK connection cache;
+ * each response is read fully so that its connection can return to the
+ * cache. With a batch endpoint, concurrent calls are coalesced: each caller
+ * queues its message, and whichever callers hold one of the send permits
+ * drain the queue, a batch at a time. Once its message has been taken into
+ * a batch, a caller blocks until the sender completes it, up to a deadline
+ * of WAIT_TIMEOUTS times the timeout: time for a batch ahead of it and for
+ * its own, so the deadline only catches a sender that never finishes. The
+ * calls share a circuit breaker, so that when the service is down, callers
+ * fail at once rather than each waiting for a timeout.
+ */
+public class RemoteSigner implements Signer {
+  private static final int MAX_CONCURRENT_SENDS = 4;
+  private static final int WAIT_TIMEOUTS = 3;
+
+  private final URL url;
+  private final URL batchUrl;
+  private final String authorization;
+  private final int timeoutMillis;
+  private final int maxBatchSize;
+  private final CircuitBreaker breaker;
+  private final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<Pending>();
+  private final Semaphore sendPermits = new Semaphore(MAX_CONCURRENT_SENDS);
+  // for tests: how many times the queue has been drained
+  private final AtomicInteger sendQueuedCalls = new AtomicInteger();
+
+  private static final class Pending {
+    final byte[] message;
+    private final CountDownLatch done = new CountDownLatch(1);
+    // set when a sender takes this into a batch
+    volatile boolean taken;
+    private volatile byte[] signature;
+    private volatile Exception failure;
+
+    Pending(byte[] message) {
+      this.message = message;
+    }
+
+    void complete(byte[] signature) {
+      this.signature = signature;
+      done.countDown();
+    }
+
+    void fail(Exception failure) {
+      this.failure = failure;
+      done.countDown();
+    }
+  }
+
+  /*
+   * batchUrl may be null, for no batching. authorization, if not null, is
+   * sent as the Authorization header. The timeout applies to connecting and
+   * to reading the response, each.
+   */
+  public RemoteSigner(
+      URL url,
+      URL batchUrl,
+      String authorization,
+      int timeoutMillis,
+      int maxBatchSize,
+      CircuitBreaker breaker) {
+    this.url = url;
+    this.batchUrl = batchUrl;
+    this.authorization = authorization;
+    this.timeoutMillis = timeoutMillis;
+    this.maxBatchSize = (batchUrl != null) ? Math.max(1, maxBatchSize) : 1;
+    this.breaker = breaker;
+  }
+
+  @Override
+  public byte[] sign(byte[] message, int offset, int length) throws Exception {
+    if (!breaker.allowRequest())
+      throw new IllegalStateException("the remote signer is unavailable");
+    byte[] copy = Arrays.copyOfRange(message, offset, offset + length);
+    if (maxBatchSize == 1) {
+      try {
+        byte[] signature = sendOne(copy);
+        breaker.recordSuccess();
+        return signature;
+      } catch (Exception e) {
+        breaker.recordFailure();
+        throw e;
+      }
+    }
+
+    Pending pending = new Pending(copy);
+    queue.add(pending);
+    long deadline =
+        System.nanoTime() + TimeUnit.MILLISECONDS.toNanos((long) timeoutMillis * WAIT_TIMEOUTS);
+    // send batches while this message is still queued; each send makes progress
+    while (!pending.taken) {
+      if (sendPermits.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+        try {
+          sendQueued();
+        } finally {
+          sendPermits.release();
+        }
+      } else if (queue.remove(pending)) {
+        throw new IllegalStateException("the remote signer did not respond in time");
+      }
+    }
+    if (!pending.done.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))
+      throw new IllegalStateException("the remote signer did not respond in time");
+    if (pending.failure != null) throw pending.failure;
+    return pending.signature;
+  }
+
+  int getSendQueuedCalls() {
+    return sendQueuedCalls.get();
+  }
+
+  // Sends up to maxBatchSize queued messages as one request.
+  private void sendQueued() {
+    sendQueuedCalls.incrementAndGet();
+    List<Pending> batch = new ArrayList<Pending>();
+    Pending next;
+    while (batch.size() < maxBatchSize && (next = queue.poll()) != null) {
+      next.taken = true;
+      batch.add(next);
+    }
+    if (batch.isEmpty()) return;
+    try {
+      List<byte[]> signatures;
+      if (batch.size() == 1) {
+        signatures = new ArrayList<byte[]>();
+        signatures.add(sendOne(batch.get(0).message));
+      } else {
+        signatures = sendBatch(batch);
+      }
+      breaker.recordSuccess();
+      for (int i = 0; i < batch.size(); i++) {
+        batch.get(i).complete(signatures.get(i));
+      }
+    } catch (Exception e) {
+      breaker.recordFailure();
+      for (Pending pending : batch) {
+        pending.fail(e);
+      }
+    }
+  }
+
+  private byte[] sendOne(byte[] message) throws Exception {
+    String request =
+        Json.createObjectBuilder()
+            .add("payload", Base64.getEncoder().encodeToString(message))
+            .build()
+            .toString();
+    JsonObject response = post(url, request);
+    if (!response.containsKey("signedBlob"))
+      throw new IllegalStateException("the remote signer returned an invalid response");
+    return Base64.getDecoder().decode(response.getString("signedBlob"));
+  }
+
+  private List<byte[]> sendBatch(List<Pending> batch) throws Exception {
+    JsonArrayBuilder payloads = Json.createArrayBuilder();
+    for (Pending pending : batch) {
+      payloads.add(Base64.getEncoder().encodeToString(pending.message));
+    }
+    String request = Json.createObjectBuilder().add("payloads", payloads).build().toString();
+    JsonArray signedBlobs = post(batchUrl, request).getJsonArray("signedBlobs");
+    if (signedBlobs == null || signedBlobs.size() != batch.size())
+      throw new IllegalStateException("the remote signer returned the wrong number of signatures");
+    List<byte[]> signatures = new ArrayList<byte[]>(batch.size());
+    for (int i = 0; i < batch.size(); i++) {
+      signatures.add(Base64.getDecoder().decode(signedBlobs.getString(i)));
+    }
+    return signatures;
+  }
+
+  private JsonObject post(URL target, String body) throws Exception {
+    byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+    HttpURLConnection connection = (HttpURLConnection) target.openConnection();
+    try {
+      connection.setRequestMethod("POST");
+      connection.setConnectTimeout(timeoutMillis);
+      connection.setReadTimeout(timeoutMillis);
+      connection.setDoOutput(true);
+      connection.setFixedLengthStreamingMode(bodyBytes.length);
+      connection.setRequestProperty("Content-Type", "application/json");
+      if (authorization != null) connection.setRequestProperty("Authorization", authorization);
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(bodyBytes);
+      }
+      int status = connection.getResponseCode();
+      if (status != 200) {
+        // drain the error body too, so that the connection can be reused
+        InputStream error = connection.getErrorStream();
+        if (error != null) readFully(error);
+        throw new IllegalStateException("the remote signer returned status " + status);
+      }
+      String response = new String(readFully(connection.getInputStream()), StandardCharsets.UTF_8);
+      try (JsonReader reader = Json.createReader(new StringReader(response))) {
+        return reader.readObject();
+      } catch (RuntimeException e) {
+        throw new IllegalStateException("the remote signer returned an invalid response");
+      }
+    } catch (SocketTimeoutException e) {
+      connection.disconnect();
+      throw new IllegalStateException("the remote signer timed out");
+    }
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    try (InputStream input = in) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+      byte[] buffer = new byte[512];
+      int n;
+      while ((n = input.read(buffer)) > 0) out.write(buffer, 0, n);
+      return out.toByteArray();
+    }
+  }
+}
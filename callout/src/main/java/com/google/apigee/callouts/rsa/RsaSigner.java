@@ -0,0 +1,80 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts.rsa;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.PrivateKey;
+import java.security.interfaces.RSAPrivateCrtKey;
+import org.bouncycastle.crypto.CryptoException;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
+import org.bouncycastle.crypto.params.RSAPrivateCrtKeyParameters;
+import org.bouncycastle.crypto.signers.RSADigestSigner;
+import org.bouncycastle.crypto.util.PrivateKeyFactory;
+
+/*
+ * A Signer that uses the BouncyCastle lightweight API. The key
+ * parameters are decoded once, and each thread keeps its own initialized
+ * signer and digest, so a signature costs only the digest update and the
+ * modular exponentiation. Safe for use by many threads at once.
+ */
+public class RsaSigner implements Signer {
+  private final AsymmetricKeyParameter keyParameters;
+  private final ThreadLocal<RSADigestSigner> signers;
+
+  public RsaSigner(PrivateKey privateKey) throws IOException {
+    this.keyParameters = toKeyParameters(privateKey);
+    this.signers =
+        ThreadLocal.withInitial(
+            () -> {
+              RSADigestSigner signer = new RSADigestSigner(new SHA256Digest());
+              signer.init(true, keyParameters);
+              return signer;
+            });
+  }
+
+  static AsymmetricKeyParameter toKeyParameters(PrivateKey privateKey) throws IOException {
+    if (privateKey instanceof RSAPrivateCrtKey) {
+      RSAPrivateCrtKey k = (RSAPrivateCrtKey) privateKey;
+      return new RSAPrivateCrtKeyParameters(
+          k.getModulus(),
+          k.getPublicExponent(),
+          k.getPrivateExponent(),
+          k.getPrimeP(),
+          k.getPrimeQ(),
+          k.getPrimeExponentP(),
+          k.getPrimeExponentQ(),
+          k.getCrtCoefficient());
+    }
+    // not a CRT key; take the slow path through the encoded form
+    return PrivateKeyFactory.createKey(privateKey.getEncoded());
+  }
+
+  @Override
+  public byte[] sign(byte[] message, int offset, int length) throws CryptoException {
+    RSADigestSigner signer = signers.get();
+    signer.reset();
+    signer.update(message, offset, length);
+    return signer.generateSignature();
+  }
+
+  @Override
+  public byte[] sign(String signingBase) throws CryptoException {
+    byte[] messageBytes = signingBase.getBytes(StandardCharsets.UTF_8);
+    return sign(messageBytes, 0, messageBytes.length);
+  }
+}
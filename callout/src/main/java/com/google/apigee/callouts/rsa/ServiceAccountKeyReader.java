@@ -0,0 +1,82 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts.rsa;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import javax.json.Json;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
+
+/*
+ * Pulls the fields the callouts use from a service account key file, with a
+ * streaming parser. Values of other fields are skipped rather than decoded,
+ * and parsing stops as soon as every wanted field has been seen; in a key
+ * file downloaded from the console, that is before the auth and certificate
+ * URLs. The type is checked as soon as it is read.
+ */
+final class ServiceAccountKeyReader {
+  private static final String[] FIELDS = {
+    "type", "project_id", "private_key_id", "private_key", "client_email", "client_id"
+  };
+  private static final JsonParserFactory parserFactory = Json.createParserFactory(null);
+
+  private ServiceAccountKeyReader() {}
+
+  private static boolean isWanted(String name) {
+    for (String field : FIELDS) {
+      if (field.equals(name)) return true;
+    }
+    return false;
+  }
+
+  static Map<String, String> read(String json) {
+    Map<String, String> fields = new HashMap<String, String>(16);
+    try (JsonParser parser = parserFactory.createParser(new StringReader(json))) {
+      if (!parser.hasNext() || parser.next() != JsonParser.Event.START_OBJECT)
+        throw new IllegalStateException("the service account key data is invalid");
+
+      while (fields.size() < FIELDS.length && parser.hasNext()) {
+        JsonParser.Event event = parser.next();
+        if (event == JsonParser.Event.END_OBJECT) break;
+        // at the top level, each value is preceded by its name
+        String name = parser.getString();
+        event = parser.next();
+        switch (event) {
+          case START_OBJECT:
+            parser.skipObject();
+            break;
+          case START_ARRAY:
+            parser.skipArray();
+            break;
+          case VALUE_STRING:
+          case VALUE_NUMBER:
+            if (isWanted(name)) {
+              String value = parser.getString();
+              if (name.equals("type") && !value.equals("service_account"))
+                throw new IllegalStateException("the service account key data is invalid");
+              fields.put(name, value);
+            }
+            break;
+          default:
+            break;
+        }
+      }
+    }
+    return fields;
+  }
+}
@@ -0,0 +1,104 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts.rsa;
+
+import com.google.apigee.encoding.BinaryEncoder;
+
+/*
+ * Assembles a signed URL in one pass into a presized char[], encoding the
+ * signature bytes in place. The encoded signature is available separately,
+ * as a substring of the URL, for the sign_signature output variable.
+ */
+public final class SignedUrl {
+  public static final String ORIGIN = "https://storage.googleapis.com";
+  private static final String V4_SIGNATURE_PARAM = "&X-Goog-Signature=";
+  private static final String V2_ACCESS_ID_PARAM = "?GoogleAccessId=";
+  private static final String V2_EXPIRES_PARAM = "&Expires=";
+  private static final String V2_SIGNATURE_PARAM = "&Signature=";
+
+  private final String url;
+  private final int signatureOffset;
+
+  private SignedUrl(char[] chars, int signatureOffset) {
+    this.url = new String(chars);
+    this.signatureOffset = signatureOffset;
+  }
+
+  // ORIGIN + resource + "?" + canonicalQuery + "&X-Goog-Signature=" + hex(signature)
+  public static SignedUrl v4(String resource, String canonicalQuery, byte[] signature) {
+    char[] out =
+        new char
+            [ORIGIN.length()
+                + resource.length()
+                + 1
+                + canonicalQuery.length()
+                + V4_SIGNATURE_PARAM.length()
+                + BinaryEncoder.hexLength(signature)];
+    int p = put(out, 0, ORIGIN);
+    p = put(out, p, resource);
+    out[p++] = '?';
+    p = put(out, p, canonicalQuery);
+    p = put(out, p, V4_SIGNATURE_PARAM);
+    BinaryEncoder.encodeHex(signature, out, p);
+    return new SignedUrl(out, p);
+  }
+
+  /*
+   * ORIGIN + resource + "?GoogleAccessId=" + accessId + "&Expires=" + expiration
+   * + "&Signature=" + urlencode(base64(signature))
+   */
+  public static SignedUrl v2(
+      String resource, String accessId, String expiration, byte[] signature) {
+    char[] out =
+        new char
+            [ORIGIN.length()
+                + resource.length()
+                + V2_ACCESS_ID_PARAM.length()
+                + accessId.length()
+                + V2_EXPIRES_PARAM.length()
+                + expiration.length()
+                + V2_SIGNATURE_PARAM.length()
+                + BinaryEncoder.base64QueryLength(signature)];
+    int p = put(out, 0, ORIGIN);
+    p = put(out, p, resource);
+    p = put(out, p, V2_ACCESS_ID_PARAM);
+    p = put(out, p, accessId);
+    p = put(out, p, V2_EXPIRES_PARAM);
+    p = put(out, p, expiration);
+    p = put(out, p, V2_SIGNATURE_PARAM);
+    BinaryEncoder.encodeBase64Query(signature, out, p);
+    return new SignedUrl(out, p);
+  }
+
+  private static int put(char[] out, int p, String s) {
+    s.getChars(0, s.length(), out, p);
+    return p + s.length();
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  // the signature as it appears in the URL
+  public String getEncodedSignature() {
+    return url.substring(signatureOffset);
+  }
+
+  @Override
+  public String toString() {
+    return url;
+  }
+}
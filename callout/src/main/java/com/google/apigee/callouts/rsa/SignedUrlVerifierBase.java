@@ -0,0 +1,168 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.callouts.rsa;
+
+import com.apigee.flow.execution.ExecutionContext;
+import com.apigee.flow.execution.ExecutionResult;
+import com.apigee.flow.execution.spi.Execution;
+import com.apigee.flow.message.MessageContext;
+import com.google.apigee.callouts.rsa.CalloutOutput.Level;
+import com.google.apigee.metrics.PhaseTimer;
+import com.google.apigee.metrics.SigningMetrics.Phase;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * The common parts of the signed URL verifiers: parsing the url property,
+ * finding the public keys for the signer, and reporting the outcome. On
+ * success, sign_valid is true; on any failure, it is false, sign_error says
+ * why, and the callout aborts the flow.
+ *
+ * The keys come from the public-keys property, PEM certificates or public
+ * keys, or a JSON map of key ids to certificates; or else from the public
+ * half of the signing key, in the private-key or service-account-key
+ * property. Either way they are decoded once and cached.
+ */
+public abstract class SignedUrlVerifierBase extends SigningCalloutBase implements Execution {
+
+  public SignedUrlVerifierBase(Map properties, SigningClock clock) {
+    super(properties, clock);
+  }
+
+  static final class ParsedUrl {
+    String host;
+    // the path, as it appears in the URL; it is signed that way
+    String resource;
+    // the decoded query parameters, sorted by name
+    Map<String, String> query;
+
+    String getRequiredParam(String name) {
+      String value = query.get(name);
+      if (value == null || value.equals(""))
+        throw new IllegalStateException("the url is missing the " + name + " parameter");
+      return value;
+    }
+  }
+
+  static ParsedUrl parseUrl(String url) {
+    URI uri;
+    try {
+      uri = new URI(url);
+    } catch (URISyntaxException e) {
+      throw new IllegalStateException("the url is invalid");
+    }
+    if (uri.getHost() == null || uri.getRawPath() == null || uri.getRawQuery() == null)
+      throw new IllegalStateException("the url is invalid");
+    ParsedUrl parsed = new ParsedUrl();
+    parsed.host = uri.getHost() + ((uri.getPort() != -1) ? ":" + uri.getPort() : "");
+    parsed.resource = uri.getRawPath();
+    parsed.query = new TreeMap<String, String>();
+    for (String item : uri.getRawQuery().split("&")) {
+      if (item.equals("")) continue;
+      String[] kv = item.split("=", 2);
+      String name = percentDecode(kv[0]);
+      if (parsed.query.put(name, (kv.length == 2) ? percentDecode(kv[1]) : "") != null)
+        throw new IllegalStateException("the url repeats the " + name + " parameter");
+    }
+    return parsed;
+  }
+
+  // A plus sign is literal in a signed URL, not an encoded space.
+  private static String percentDecode(String s) {
+    try {
+      return URLDecoder.decode(s.replace("+", "%2B"), "UTF-8");
+    } catch (IllegalArgumentException | UnsupportedEncodingException e) {
+      throw new IllegalStateException("the url is invalid");
+    }
+  }
+
+  // how far ahead of this clock a signer's clock may be
+  protected static final long CLOCK_SKEW_SECONDS = 300L;
+
+  /*
+   * A url must not claim to have been signed in the future; one that did
+   * would remain valid for longer than its signer intended.
+   */
+  protected static void checkIssued(long issued, SigningClock.Tick now) {
+    if (issued > now.getEpochSecond() + CLOCK_SKEW_SECONDS)
+      throw new IllegalStateException("the url was signed in the future");
+  }
+
+  protected static void checkExpiry(long expiration, SigningClock.Tick now) {
+    if (now.getEpochSecond() >= expiration)
+      throw new IllegalStateException("the url has expired");
+  }
+
+  /*
+   * The keys that may have signed for clientEmail. If the
+   * service-account-email property is set, the url must name that account.
+   */
+  protected VerificationKeys getVerificationKeys(
+      final MessageContext msgCtxt, final String clientEmail) throws Exception {
+    String expectedEmail = getSimpleOptionalProperty("service-account-email", msgCtxt);
+    if (expectedEmail != null && !expectedEmail.equals(clientEmail))
+      throw new IllegalStateException("the url was not signed by the expected service account");
+    String publicKeys = getSimpleOptionalProperty("public-keys", msgCtxt);
+    if (publicKeys != null) return VerificationKeys.forMaterial(clientEmail, publicKeys);
+    if (!hasProperty("service-account-key") && !hasProperty("private-key"))
+      throw new IllegalStateException(
+          "specify one of public-keys, private-key or service-account-key");
+    SigningKey signingKey = getSigningKey(msgCtxt);
+    if (!clientEmail.equals(signingKey.getClientEmail()))
+      throw new IllegalStateException("the url was not signed by the expected service account");
+    return signingKey.getVerificationKeys();
+  }
+
+  /*
+   * Throws IllegalStateException if the url is not validly signed. Sets the
+   * client_email and expiration outputs.
+   */
+  protected abstract void verify(
+      MessageContext msgCtxt,
+      CalloutOutput out,
+      ParsedUrl url,
+      SigningClock.Tick now,
+      PhaseTimer timer)
+      throws Exception;
+
+  public ExecutionResult execute(final MessageContext msgCtxt, final ExecutionContext execContext) {
+    PhaseTimer timer = startTimer();
+    try {
+      CalloutOutput out = newOutput(msgCtxt);
+      ParsedUrl url = parseUrl(getSimpleRequiredProperty("url", msgCtxt));
+      timer.mark(Phase.PROPERTIES);
+      verify(msgCtxt, out, url, clock.now(), timer);
+      out.set(Level.MINIMAL, "valid", "true");
+      finishTimer(timer, msgCtxt, out, null);
+      out.finish();
+      return ExecutionResult.SUCCESS;
+    } catch (IllegalStateException exc1) {
+      msgCtxt.setVariable(varName("valid"), "false");
+      setExceptionVariables(exc1, msgCtxt);
+      finishTimer(timer, msgCtxt, null, exc1);
+      return ExecutionResult.ABORT;
+    } catch (Exception e) {
+      msgCtxt.setVariable(varName("valid"), "false");
+      setExceptionVariables(e, msgCtxt);
+      msgCtxt.setVariable(varName("stacktrace"), exceptionStackTrace(e));
+      finishTimer(timer, msgCtxt, null, e);
+      return ExecutionResult.ABORT;
+    }
+  }
+}
@@ -0,0 +1,32 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.callouts.rsa;
+
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Signs bytes with one key, in whatever scheme that key is for: an RSA
+ * service account key, locally or through a remote signer, or an HMAC key.
+ * An implementation is safe for use by many threads at once. See
+ * SignerBackend for the local RSA implementations.
+ */
+public interface Signer {
+  byte[] sign(byte[] message, int offset, int length) throws Exception;
+
+  default byte[] sign(String signingBase) throws Exception {
+    byte[] messageBytes = signingBase.getBytes(StandardCharsets.UTF_8);
+    return sign(messageBytes, 0, messageBytes.length);
+  }
+}
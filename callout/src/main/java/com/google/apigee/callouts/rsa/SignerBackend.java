@@ -0,0 +1,161 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.callouts.rsa;
+
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.Security;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/*
+ * The implementations of Signer. Which is fastest depends on the JVM: the
+ * SunRsaSign provider benefits from the HotSpot BigInteger intrinsics for
+ * Montgomery multiplication, where they exist, while the BouncyCastle code
+ * does its own arithmetic. When no backend is configured, fastest() picks
+ * one by timing each available backend with the first key that is used.
+ */
+public enum SignerBackend {
+  BC_LIGHTWEIGHT("bc-lightweight") {
+    @Override
+    Signer create(PrivateKey privateKey) throws Exception {
+      return new RsaSigner(privateKey);
+    }
+  },
+  JCA_SUN("jca-sun") {
+    @Override
+    Signer create(PrivateKey privateKey) throws Exception {
+      Provider provider = Security.getProvider("SunRsaSign");
+      if (provider == null) throw new IllegalStateException("SunRsaSign is not available");
+      return new JcaSigner(privateKey, provider);
+    }
+  },
+  JCA_BC("jca-bc") {
+    @Override
+    Signer create(PrivateKey privateKey) throws Exception {
+      return new JcaSigner(privateKey, bouncyCastle);
+    }
+  };
+
+  // not registered, so that this does not depend on, or change, the JVM setup
+  static final Provider bouncyCastle = new BouncyCastleProvider();
+  private static final int CALIBRATION_ROUNDS = 4;
+  private static final int CALIBRATION_SIGNATURES = 8;
+  private static final long CALIBRATION_BUDGET_NANOS = 500_000_000L;
+  private static volatile SignerBackend fastest;
+  private static final AtomicBoolean calibrationStarted = new AtomicBoolean();
+
+  private final String name;
+
+  SignerBackend(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  abstract Signer create(PrivateKey privateKey) throws Exception;
+
+  // Returns null for "auto", which means the fastest backend.
+  public static SignerBackend forName(String name) {
+    if (name == null || name.equals("auto")) return null;
+    for (SignerBackend backend : values()) {
+      if (backend.name.equals(name)) return backend;
+    }
+    throw new IllegalStateException(
+        "signer must be one of auto, bc-lightweight, jca-sun, jca-bc");
+  }
+
+  /*
+   * The fastest backend on this JVM, without waiting for it to be found. The
+   * first call starts the calibration on a background daemon thread, with the
+   * given key; until it is done, this returns BC_LIGHTWEIGHT, so that no
+   * request pays for the calibration.
+   */
+  public static SignerBackend fastest(PrivateKey privateKey) {
+    SignerBackend result = fastest;
+    if (result != null) return result;
+    if (calibrationStarted.compareAndSet(false, true)) {
+      Thread thread = new Thread(() -> fastestNow(privateKey), "signer-calibration");
+      thread.setDaemon(true);
+      thread.start();
+    }
+    return BC_LIGHTWEIGHT;
+  }
+
+  /*
+   * The fastest backend on this JVM, calibrating now if need be. The
+   * calibration times each backend that can sign with the given key, over
+   * interleaved rounds so that JIT warmup affects all of them alike, and
+   * keeps the one with the lowest time in its best round; later calls return
+   * that choice. The calibration stops early when it exceeds its time budget.
+   * The warm-up and the bulk signer call this; requests call fastest().
+   */
+  public static SignerBackend fastestNow(PrivateKey privateKey) {
+    SignerBackend result = fastest;
+    if (result == null) {
+      synchronized (SignerBackend.class) {
+        result = fastest;
+        if (result == null) {
+          result = calibrate(privateKey);
+          fastest = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  static SignerBackend calibrate(PrivateKey privateKey) {
+    SignerBackend[] backends = values();
+    Signer[] signers = new Signer[backends.length];
+    long[] best = new long[backends.length];
+    for (int i = 0; i < backends.length; i++) {
+      try {
+        signers[i] = backends[i].create(privateKey);
+        signers[i].sign("calibration");
+        best[i] = Long.MAX_VALUE;
+      } catch (Exception e) {
+        signers[i] = null; // not available on this JVM, or not for this key
+      }
+    }
+    byte[] message = new byte[128];
+    long deadline = System.nanoTime() + CALIBRATION_BUDGET_NANOS;
+    for (int round = 0; round < CALIBRATION_ROUNDS && System.nanoTime() < deadline; round++) {
+      for (int i = 0; i < backends.length; i++) {
+        if (signers[i] == null) continue;
+        try {
+          long start = System.nanoTime();
+          for (int n = 0; n < CALIBRATION_SIGNATURES; n++) {
+            message[0] = (byte) n;
+            signers[i].sign(message, 0, message.length);
+          }
+          best[i] = Math.min(best[i], System.nanoTime() - start);
+        } catch (Exception e) {
+          signers[i] = null;
+        }
+      }
+    }
+    SignerBackend choice = BC_LIGHTWEIGHT;
+    long choiceTime = Long.MAX_VALUE;
+    for (int i = 0; i < backends.length; i++) {
+      if (signers[i] != null && best[i] < choiceTime) {
+        choice = backends[i];
+        choiceTime = best[i];
+      }
+    }
+    return choice;
+  }
+}
@@ -16,37 +16,46 @@
 package com.google.apigee.callouts.rsa;
 
 import com.apigee.flow.message.MessageContext;
+import com.google.apigee.cache.ExpiringCache;
+import com.google.apigee.encoding.PercentEncoder;
 import com.google.apigee.json.JavaxJson;
+import com.google.apigee.metrics.PhaseTimer;
+import com.google.apigee.metrics.SigningMetrics;
 import com.google.apigee.time.TimeResolver;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.interfaces.RSAPrivateCrtKey;
-import java.security.interfaces.RSAPrivateKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.RSAPublicKeySpec;
 import java.time.Instant;
-import java.time.ZoneOffset;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
 import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
 import org.bouncycastle.crypto.CryptoException;
 import org.bouncycastle.crypto.digests.SHA256Digest;
 import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
 import org.bouncycastle.crypto.signers.RSADigestSigner;
-import org.bouncycastle.crypto.util.PrivateKeyFactory;
 import org.bouncycastle.openssl.PEMDecryptorProvider;
 import org.bouncycastle.openssl.PEMEncryptedKeyPair;
 import org.bouncycastle.openssl.PEMKeyPair;
@@ -56,18 +65,169 @@ import org.bouncycastle.openssl.jcajce.JceOpenSSLPKCS8DecryptorProviderBuilder;
 import org.bouncycastle.openssl.jcajce.JcePEMDecryptorProviderBuilder;
 import org.bouncycastle.operator.InputDecryptorProvider;
 import org.bouncycastle.pkcs.PKCS8EncryptedPrivateKeyInfo;
+import org.bouncycastle.util.encoders.Hex;
 
 public abstract class SigningCalloutBase {
   private static final String _varprefix = "sign_";
   private Map properties; // read-only
-  private static final String variableReferencePatternString = "(.*?)\\{([^\\{\\} ]+?)\\}(.*?)";
-  private static final Pattern variableReferencePattern =
-      Pattern.compile(variableReferencePatternString);
+  private final Map<String, PropertyTemplate> templates;
+  private final Long literalExpiresInSeconds;
+  private final Long literalCacheWindowSeconds;
+  private final Long literalCacheMinLifetimeSeconds;
   private static final String commonError = "^(.+?)[:;] (.+)$";
+  private static final String decryptionError =
+      "the private key cannot be decrypted; check private-key-password";
   private static final Pattern commonErrorPattern = Pattern.compile(commonError);
+  private static final int BATCH_MAX_ITEMS = 10000;
+  private static final int BATCH_PARALLEL_THRESHOLD = 16;
+  private static final int BATCH_LEAF_SIZE = 4;
+  private static final int KEY_CACHE_MAX_ENTRIES = 128;
+  private static final long KEY_CACHE_TTL_MILLIS = 60L * 60 * 1000;
+  private static final int SIGNATURE_CACHE_MAX_ENTRIES = 10000;
+  private static final long SIGNATURE_CACHE_TTL_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+  // Shared by all callout instances and classes. The key is the SHA-256 of
+  // the service-account-key property value, so the JSON itself is not retained
+  // as a map key.
+  private static final ExpiringCache<String, SigningKey> keyCache =
+      new ExpiringCache<String, SigningKey>(KEY_CACHE_MAX_ENTRIES, KEY_CACHE_TTL_MILLIS);
+
+  // remote signers, one per configuration; a breaker per endpoint, shared
+  private static final int REMOTE_SIGNER_DEFAULT_TIMEOUT_MILLIS = 2000;
+  private static final int REMOTE_SIGNER_DEFAULT_MAX_BATCH = 32;
+  private static final int REMOTE_SIGNER_FAILURE_THRESHOLD = 5;
+  private static final long REMOTE_SIGNER_OPEN_MILLIS = 10L * 1000;
+  private static final ExpiringCache<String, RemoteSigner> remoteSigners =
+      new ExpiringCache<String, RemoteSigner>(KEY_CACHE_MAX_ENTRIES, KEY_CACHE_TTL_MILLIS);
+  private static final ConcurrentHashMap<String, CircuitBreaker> remoteSignerBreakers =
+      new ConcurrentHashMap<String, CircuitBreaker>();
+
+  // Signatures, keyed on the client email and the string-to-sign. Used only
+  // when the cache-window property is set. Each entry expires when the signed
+  // URL has less than the minimum remaining lifetime.
+  private static final ExpiringCache<String, byte[]> signatureCache =
+      new ExpiringCache<String, byte[]>(SIGNATURE_CACHE_MAX_ENTRIES, SIGNATURE_CACHE_TTL_MILLIS);
+
+  // the most recently formatted expiry; many requests share one
+  private static volatile ExpiryText lastExpiryText = new ExpiryText(0L);
+
+  protected final SigningClock clock;
+  private final SigningMetrics metrics;
+  private final boolean timing;
+  private final boolean metricsSnapshot;
+  private final Warmup warmup;
 
   public SigningCalloutBase(Map properties) {
+    this(properties, SigningClock.SYSTEM);
+  }
+
+  public SigningCalloutBase(Map properties, SigningClock clock) {
+    this.clock = clock;
     this.properties = properties;
+    this.metrics = SigningMetrics.forCallout(getClass().getSimpleName());
+    this.timing = getBooleanProperty("timing");
+    this.metricsSnapshot = getBooleanProperty("metrics");
+    this.templates = compileProperties(properties);
+    String expiresIn = getLiteralProperty("expires-in");
+    this.literalExpiresInSeconds =
+        (expiresIn != null) ? Long.valueOf(TimeResolver.resolveExpression(expiresIn)) : null;
+    String cacheWindow = getLiteralProperty("cache-window");
+    this.literalCacheWindowSeconds =
+        (cacheWindow != null) ? Long.valueOf(TimeResolver.resolveExpression(cacheWindow)) : null;
+    String cacheMinLifetime = getLiteralProperty("cache-min-lifetime");
+    this.literalCacheMinLifetimeSeconds =
+        (cacheMinLifetime != null)
+            ? Long.valueOf(TimeResolver.resolveExpression(cacheMinLifetime))
+            : null;
+    if (literalCacheWindowSeconds != null
+        && literalExpiresInSeconds != null
+        && (literalCacheMinLifetimeSeconds != null || !hasProperty("cache-min-lifetime"))) {
+      checkCacheLifetime(
+          literalCacheWindowSeconds,
+          (literalCacheMinLifetimeSeconds != null)
+              ? literalCacheMinLifetimeSeconds
+              : literalCacheWindowSeconds,
+          literalExpiresInSeconds);
+    }
+    this.warmup = getBooleanProperty("warmup") ? startWarmup() : null;
+  }
+
+  /*
+   * Starts the warm-up, with the keys in the literal key properties and in
+   * the file named by warmup-key-file. Properties that refer to variables
+   * cannot be resolved before the first request, so they are skipped.
+   */
+  private Warmup startWarmup() {
+    int iterations = Warmup.DEFAULT_ITERATIONS;
+    String iterationsValue = getLiteralProperty("warmup-iterations");
+    if (iterationsValue != null) {
+      try {
+        iterations = Integer.parseInt(iterationsValue);
+      } catch (NumberFormatException e) {
+        iterations = -1;
+      }
+      if (iterations < 0)
+        return Warmup.failed(
+            new IllegalStateException("warmup-iterations must be a non-negative integer"));
+    }
+    final String password = getLiteralProperty("private-key-password");
+    StringBuilder configuration = new StringBuilder();
+    configuration
+        .append(iterations)
+        .append('\n')
+        .append(password != null ? sha256Hex(password) : "");
+    List<Warmup.KeyLoader> keyLoaders = new ArrayList<Warmup.KeyLoader>();
+    final String serviceAccountJson = getLiteralProperty("service-account-key");
+    if (serviceAccountJson != null) {
+      keyLoaders.add(() -> cachedServiceAccountKey(serviceAccountJson, password));
+      configuration.append('\n').append(sha256Hex(serviceAccountJson));
+    }
+    final String privateKeyPem = getLiteralProperty("private-key");
+    final String clientEmail = getLiteralProperty("service-account-email");
+    if (privateKeyPem != null && clientEmail != null) {
+      keyLoaders.add(() -> cachedPrivateKey(clientEmail, privateKeyPem, password));
+      configuration.append('\n').append(sha256Hex(clientEmail + "\n" + privateKeyPem));
+    }
+    final String keyFile = getLiteralProperty("warmup-key-file");
+    if (keyFile != null) {
+      keyLoaders.add(
+          () ->
+              cachedServiceAccountKey(
+                  new String(Files.readAllBytes(Paths.get(keyFile)), StandardCharsets.UTF_8),
+                  password));
+      configuration.append('\n').append(keyFile);
+    }
+    return Warmup.start(configuration.toString(), keyLoaders, iterations);
+  }
+
+  // null unless the warmup property is true
+  Warmup getWarmup() {
+    return warmup;
+  }
+
+  private static Map<String, PropertyTemplate> compileProperties(Map properties) {
+    Map<String, PropertyTemplate> templates = new HashMap<String, PropertyTemplate>();
+    for (Object entry : properties.entrySet()) {
+      Map.Entry<?, ?> e = (Map.Entry<?, ?>) entry;
+      if (e.getKey() instanceof String && e.getValue() instanceof String) {
+        String value = ((String) e.getValue()).trim();
+        if (!value.equals("")) {
+          templates.put((String) e.getKey(), PropertyTemplate.compile(value));
+        }
+      }
+    }
+    return templates;
+  }
+
+  protected boolean hasProperty(String propName) {
+    return templates.containsKey(propName);
+  }
+
+  // Returns the value of the property if it contains no variable references,
+  // else null. Subclasses use this to do work once, at construction.
+  protected String getLiteralProperty(String propName) {
+    PropertyTemplate template = templates.get(propName);
+    return (template != null && template.isLiteral()) ? template.getLiteralValue() : null;
   }
 
   protected static String varName(String s) {
@@ -76,7 +236,7 @@ public abstract class SigningCalloutBase {
 
   protected static byte[] sign_RSA_SHA256(String signingBase, KeyPair keyPair)
       throws IOException, CryptoException {
-    AsymmetricKeyParameter param1 = PrivateKeyFactory.createKey(keyPair.getPrivate().getEncoded());
+    AsymmetricKeyParameter param1 = RsaSigner.toKeyParameters(keyPair.getPrivate());
     byte[] messageBytes = signingBase.getBytes(StandardCharsets.UTF_8);
     RSADigestSigner signer = new RSADigestSigner(new SHA256Digest());
     signer.init(true, param1);
@@ -91,9 +251,7 @@ public abstract class SigningCalloutBase {
     PublicKey publicKey =
         KeyFactory.getInstance("RSA")
             .generatePublic(
-                new RSAPublicKeySpec(
-                    ((RSAPrivateKey) privateKey).getPrivateExponent(),
-                    privCrtKey.getPublicExponent()));
+                new RSAPublicKeySpec(privCrtKey.getModulus(), privCrtKey.getPublicExponent()));
     return new KeyPair(publicKey, privateKey);
   }
 
@@ -101,7 +259,7 @@ public abstract class SigningCalloutBase {
       throws Exception {
     if (password == null) password = "";
 
-    JcaPEMKeyConverter converter = new JcaPEMKeyConverter().setProvider("BC");
+    JcaPEMKeyConverter converter = new JcaPEMKeyConverter().setProvider(SignerBackend.bouncyCastle);
     PEMParser pr = new PEMParser(new StringReader(privateKeyPemString));
     Object o = pr.readObject();
 
@@ -114,28 +272,34 @@ public abstract class SigningCalloutBase {
     if (o instanceof PKCS8EncryptedPrivateKeyInfo) {
       // produced by "openssl genpkey" or the series of commands reqd to sign an ec key
       PKCS8EncryptedPrivateKeyInfo pkcs8EncryptedPrivateKeyInfo = (PKCS8EncryptedPrivateKeyInfo) o;
-      JceOpenSSLPKCS8DecryptorProviderBuilder decryptorProviderBuilder =
-          new JceOpenSSLPKCS8DecryptorProviderBuilder();
-      InputDecryptorProvider decryptorProvider =
-          decryptorProviderBuilder.build(password.toCharArray());
-      PrivateKeyInfo privateKeyInfo =
-          pkcs8EncryptedPrivateKeyInfo.decryptPrivateKeyInfo(decryptorProvider);
+      PrivateKeyInfo privateKeyInfo;
+      try {
+        JceOpenSSLPKCS8DecryptorProviderBuilder decryptorProviderBuilder =
+            new JceOpenSSLPKCS8DecryptorProviderBuilder().setProvider(SignerBackend.bouncyCastle);
+        InputDecryptorProvider decryptorProvider =
+            decryptorProviderBuilder.build(password.toCharArray());
+        privateKeyInfo = pkcs8EncryptedPrivateKeyInfo.decryptPrivateKeyInfo(decryptorProvider);
+      } catch (Exception e) {
+        throw new IllegalStateException(decryptionError);
+      }
       PrivateKey privateKey = converter.getPrivateKey(privateKeyInfo);
       return produceKeyPair(privateKey);
     }
 
-    if (o instanceof PEMEncryptedKeyPair) {
-      PEMDecryptorProvider decProv =
-          new JcePEMDecryptorProviderBuilder().setProvider("BC").build(password.toCharArray());
-      return converter.getKeyPair(((PEMEncryptedKeyPair) o).decryptKeyPair(decProv));
-    }
-
     if (o instanceof PEMEncryptedKeyPair) {
       // produced by "openssl genrsa" or "openssl ec -genkey"
       PEMEncryptedKeyPair encryptedKeyPair = (PEMEncryptedKeyPair) o;
-      PEMDecryptorProvider decryptorProvider =
-          new JcePEMDecryptorProviderBuilder().build(password.toCharArray());
-      return converter.getKeyPair(encryptedKeyPair.decryptKeyPair(decryptorProvider));
+      PEMKeyPair decrypted;
+      try {
+        PEMDecryptorProvider decryptorProvider =
+            new JcePEMDecryptorProviderBuilder()
+                .setProvider(SignerBackend.bouncyCastle)
+                .build(password.toCharArray());
+        decrypted = encryptedKeyPair.decryptKeyPair(decryptorProvider);
+      } catch (Exception e) {
+        throw new IllegalStateException(decryptionError);
+      }
+      return converter.getKeyPair(decrypted);
     }
 
     if (o instanceof PEMKeyPair) {
@@ -146,18 +310,30 @@ public abstract class SigningCalloutBase {
     throw new Exception("unknown object type when decoding private key");
   }
 
-  // protected KeyPair getPrivateKey(MessageContext msgCtxt) throws Exception {
-  //   String privateKeyPemString = getSimpleRequiredProperty("private-key", msgCtxt);
-  //   privateKeyPemString = privateKeyPemString.trim();
-  //
-  //   // clear any leading whitespace on each line
-  //   privateKeyPemString = privateKeyPemString.replaceAll("([\\r|\\n] +)", "\n");
-  //   String privateKeyPassword = getSimpleOptionalProperty("private-key-password", msgCtxt);
-  //   return readKeyPair(privateKeyPemString, privateKeyPassword);
-  // }
+  protected long getExpiry(final MessageContext msgCtxt, final CalloutOutput out)
+      throws Exception {
+    return getExpiry(msgCtxt, out, clock.now().getEpochSecond(), 0);
+  }
+
+  private static final class ExpiryText {
+    final long epochSecond;
+    final String seconds;
+    final String iso;
+
+    ExpiryText(long epochSecond) {
+      this.epochSecond = epochSecond;
+      this.seconds = Long.toString(epochSecond);
+      this.iso = Instant.ofEpochSecond(epochSecond).toString();
+    }
+  }
 
-  protected long getExpiry(final MessageContext msgCtxt) throws Exception {
-    return getExpiry(msgCtxt, Instant.now(), 0);
+  private static ExpiryText expiryText(long epochSecond) {
+    ExpiryText text = lastExpiryText;
+    if (text.epochSecond != epochSecond) {
+      text = new ExpiryText(epochSecond);
+      lastExpiryText = text;
+    }
+    return text;
   }
 
   // protected void setExpirationVariables(long expiry, final MessageContext msgCtxt) {
@@ -172,20 +348,29 @@ public abstract class SigningCalloutBase {
   //           .format(DateTimeFormatter.ISO_INSTANT));
   // }
 
-  protected long getExpiry(final MessageContext msgCtxt, Instant now, long max) throws Exception {
-    String expiresInExpression = getSimpleOptionalProperty("expires-in", msgCtxt);
+  // The expires-in property, in seconds, or null when it is not set.
+  private Long getExpiresInSeconds(final MessageContext msgCtxt) throws Exception {
+    if (literalExpiresInSeconds != null) return literalExpiresInSeconds;
+    String expression = getSimpleOptionalProperty("expires-in", msgCtxt);
+    return (expression != null) ? Long.valueOf(TimeResolver.resolveExpression(expression)) : null;
+  }
+
+  protected long getExpiry(
+      final MessageContext msgCtxt, final CalloutOutput out, long nowEpochSeconds, long max)
+      throws Exception {
     long expiryEpochSeconds = 0L;
     long durationSeconds = 0L;
-    if (expiresInExpression != null && !expiresInExpression.equals("")) {
-      durationSeconds = TimeResolver.resolveExpression(expiresInExpression);
-      expiryEpochSeconds = now.plusSeconds(durationSeconds).getEpochSecond();
+    Long expiresInSeconds = getExpiresInSeconds(msgCtxt);
+    if (expiresInSeconds != null) {
+      durationSeconds = expiresInSeconds.longValue();
+      expiryEpochSeconds = nowEpochSeconds + durationSeconds;
     } else {
       String expiry = getSimpleOptionalProperty("expiry", msgCtxt);
       if (expiry == null || expiry.equals(""))
         throw new IllegalStateException(
             "the configuration must specify one of expiry or expires-in");
       expiryEpochSeconds = Long.valueOf(expiry);
-      durationSeconds = expiryEpochSeconds - now.getEpochSecond();
+      durationSeconds = expiryEpochSeconds - nowEpochSeconds;
     }
 
     if (max > 0 && durationSeconds > max)
@@ -194,42 +379,40 @@ public abstract class SigningCalloutBase {
     if (expiryEpochSeconds <= 0)
       throw new IllegalStateException("the configured expiry must be positive");
 
-    msgCtxt.setVariable(varName("duration"), Long.toString(durationSeconds));
-    msgCtxt.setVariable(varName("expiration"), Long.toString(expiryEpochSeconds));
-    msgCtxt.setVariable(
-        varName("expiration_ISO"),
-        ZonedDateTime.ofInstant(Instant.ofEpochSecond(expiryEpochSeconds), ZoneOffset.UTC)
-            .format(DateTimeFormatter.ISO_INSTANT));
+    if (out.wants(CalloutOutput.Level.STANDARD)) {
+      out.set(CalloutOutput.Level.STANDARD, "duration", Long.toString(durationSeconds));
+      ExpiryText text = expiryText(expiryEpochSeconds);
+      out.set(CalloutOutput.Level.STANDARD, "expiration", text.seconds);
+      out.set(CalloutOutput.Level.STANDARD, "expiration_ISO", text.iso);
+    }
 
     return expiryEpochSeconds;
   }
 
-  protected String getResource(final MessageContext msgCtxt) throws Exception {
+  protected String getResource(final MessageContext msgCtxt, final CalloutOutput out)
+      throws Exception {
     String resourceString = getSimpleOptionalProperty("resource", msgCtxt);
     if (resourceString == null) {
       try {
         String bucket = getSimpleRequiredProperty("bucket", msgCtxt);
         String object = getSimpleRequiredProperty("object", msgCtxt);
-        resourceString = "/" + bucket + "/" + object;
+        resourceString = "/" + bucket + "/" + PercentEncoder.PATH.encode(object);
       } catch (IllegalStateException e) {
         throw new IllegalStateException("specify either resource or bucket + object");
       }
     }
-    msgCtxt.setVariable(varName("resource"), resourceString);
+    out.set(CalloutOutput.Level.STANDARD, "resource", resourceString);
     return resourceString;
   }
 
   protected Map<String, String> getServiceAccountKey(final MessageContext msgCtxt)
       throws Exception {
     String serviceAccountJson = getSimpleRequiredProperty("service-account-key", msgCtxt);
-    @SuppressWarnings("unchecked")
-    Map<String, String> serviceAccountInfo =
-        ((Map<String, Object>) JavaxJson.fromJson(serviceAccountJson, Map.class))
-            .entrySet().stream()
-                .map(
-                    e ->
-                        new AbstractMap.SimpleImmutableEntry<>(e.getKey(), e.getValue().toString()))
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    return parseServiceAccountKey(serviceAccountJson);
+  }
+
+  protected static Map<String, String> parseServiceAccountKey(String serviceAccountJson) {
+    Map<String, String> serviceAccountInfo = ServiceAccountKeyReader.read(serviceAccountJson);
 
     String accountType = serviceAccountInfo.get("type");
     if (accountType == null || !accountType.equals("service_account"))
@@ -244,24 +427,428 @@ public abstract class SigningCalloutBase {
     return serviceAccountInfo;
   }
 
+  /*
+   * The key in the private-key property, a PEM that service-account-email
+   * names, or else the key in the service-account-key property. Either may
+   * be encrypted, with the password in private-key-password. Keys are cached
+   * by a digest of the key material and a digest of the password; an
+   * encrypted key is decrypted once, when it is loaded, since PBKDF2 and
+   * scrypt are deliberately slow.
+   */
+  protected SigningKey getSigningKey(final MessageContext msgCtxt) throws Exception {
+    final String password = getSimpleOptionalProperty("private-key-password", msgCtxt);
+    final String privateKeyPem = getSimpleOptionalProperty("private-key", msgCtxt);
+    if (privateKeyPem != null) {
+      return cachedPrivateKey(
+          getSimpleRequiredProperty("service-account-email", msgCtxt), privateKeyPem, password);
+    }
+    return cachedServiceAccountKey(
+        getSimpleRequiredProperty("service-account-key", msgCtxt), password);
+  }
+
+  // The cached key for a PEM private key; the warm-up also uses this.
+  static SigningKey cachedPrivateKey(
+      final String clientEmail, final String privateKeyPem, final String password)
+      throws Exception {
+    final String passwordDigest = (password != null) ? sha256Hex(password) : "";
+    return keyCache.get(
+        sha256Hex(clientEmail + "\n" + privateKeyPem) + "/" + passwordDigest,
+        k -> {
+          Map<String, String> info = new HashMap<String, String>();
+          info.put("client_email", clientEmail);
+          // clear any leading whitespace on each line
+          info.put("private_key", privateKeyPem.trim().replaceAll("([\\r|\\n] +)", "\n"));
+          return loadSigningKey(info, password);
+        });
+  }
+
+  // The cached key for a service account key JSON; the warm-up also uses this.
+  static SigningKey cachedServiceAccountKey(final String serviceAccountJson, final String password)
+      throws Exception {
+    final String passwordDigest = (password != null) ? sha256Hex(password) : "";
+    return keyCache.get(
+        sha256Hex(serviceAccountJson) + "/" + passwordDigest,
+        k -> loadSigningKey(parseServiceAccountKey(serviceAccountJson), password));
+  }
+
+  private static SigningKey loadSigningKey(Map<String, String> info, String password)
+      throws Exception {
+    SigningKey signingKey = new SigningKey(info, password);
+    if (password != null) signingKey.getKeyPair();
+    return signingKey;
+  }
+
+  /*
+   * The service account that signs: held by a remote signer when the
+   * remote-signer-url property is set, in which case service-account-email
+   * names it; else the key in the service-account-key property.
+   */
+  protected SigningCredential getServiceAccountCredential(final MessageContext msgCtxt)
+      throws Exception {
+    String remoteUrl = getSimpleOptionalProperty("remote-signer-url", msgCtxt);
+    if (remoteUrl == null) return SigningCredential.rsa(getSigningKey(msgCtxt));
+    String clientEmail = getSimpleRequiredProperty("service-account-email", msgCtxt);
+    String batchUrl = getSimpleOptionalProperty("remote-signer-batch-url", msgCtxt);
+    String authorization = getSimpleOptionalProperty("remote-signer-authorization", msgCtxt);
+    int timeoutMillis =
+        getIntProperty("remote-signer-timeout-ms", REMOTE_SIGNER_DEFAULT_TIMEOUT_MILLIS, msgCtxt);
+    int maxBatchSize =
+        getIntProperty("remote-signer-max-batch", REMOTE_SIGNER_DEFAULT_MAX_BATCH, msgCtxt);
+    // the authorization is a credential; the cache key holds only its hash
+    String cacheKey =
+        String.join(
+                "\n",
+                remoteUrl,
+                batchUrl,
+                (authorization != null) ? sha256Hex(authorization) : null)
+            + "\n"
+            + timeoutMillis
+            + "\n"
+            + maxBatchSize;
+    RemoteSigner signer =
+        remoteSigners.get(
+            cacheKey,
+            k -> {
+              CircuitBreaker breaker =
+                  remoteSignerBreakers.computeIfAbsent(
+                      remoteUrl,
+                      u ->
+                          new CircuitBreaker(
+                              REMOTE_SIGNER_FAILURE_THRESHOLD, REMOTE_SIGNER_OPEN_MILLIS));
+              return new RemoteSigner(
+                  new URL(remoteUrl),
+                  (batchUrl != null) ? new URL(batchUrl) : null,
+                  authorization,
+                  timeoutMillis,
+                  maxBatchSize,
+                  breaker);
+            });
+    return SigningCredential.remote(
+        clientEmail, sha256Hex(clientEmail + "\n" + cacheKey), signer);
+  }
+
+  private int getIntProperty(String propName, int defaultValue, final MessageContext msgCtxt)
+      throws Exception {
+    String value = getSimpleOptionalProperty(propName, msgCtxt);
+    if (value == null) return defaultValue;
+    try {
+      int result = Integer.parseInt(value.trim());
+      if (result > 0) return result;
+    } catch (NumberFormatException e) {
+      // fall through
+    }
+    throw new IllegalStateException(propName + " must be a positive integer");
+  }
+
+  private long getSeconds(String propName, Long literalValue, final MessageContext msgCtxt)
+      throws Exception {
+    long seconds;
+    if (literalValue != null) {
+      seconds = literalValue.longValue();
+    } else {
+      String expression = getSimpleOptionalProperty(propName, msgCtxt);
+      if (expression == null) return 0L;
+      seconds = TimeResolver.resolveExpression(expression);
+    }
+    if (seconds <= 0) throw new IllegalStateException(propName + " is not a valid time span");
+    return seconds;
+  }
+
+  /*
+   * The width of the signing window, in seconds, or zero when the cache is off.
+   * The signing time is rounded down to the start of the window, so a URL
+   * issued late in the window has up to a window less of its lifetime left;
+   * expires-in must cover the window and cache-min-lifetime.
+   */
+  protected long getCacheWindow(final MessageContext msgCtxt) throws Exception {
+    if (literalCacheWindowSeconds == null && !hasProperty("cache-window")) return 0L;
+    long window = getSeconds("cache-window", literalCacheWindowSeconds, msgCtxt);
+    Long expiresInSeconds = getExpiresInSeconds(msgCtxt);
+    if (expiresInSeconds != null) {
+      checkCacheLifetime(window, getCacheMinLifetime(msgCtxt, window), expiresInSeconds);
+    }
+    return window;
+  }
+
+  /*
+   * The signing time falls before the end of the window, so a URL always has
+   * more than expires-in less the window remaining when it is issued; that
+   * must be at least cache-min-lifetime.
+   */
+  private static void checkCacheLifetime(long window, long minLifetime, long expiresIn) {
+    if (expiresIn < window + minLifetime)
+      throw new IllegalStateException(
+          "expires-in must be at least cache-window plus cache-min-lifetime");
+  }
+
+  private long getCacheMinLifetime(final MessageContext msgCtxt, final long window)
+      throws Exception {
+    return (literalCacheMinLifetimeSeconds == null && !hasProperty("cache-min-lifetime"))
+        ? window
+        : getSeconds("cache-min-lifetime", literalCacheMinLifetimeSeconds, msgCtxt);
+  }
+
+  /*
+   * The time, in epoch milliseconds, until which a signature for a URL that
+   * expires at expiryEpochSeconds may be served from the cache: the URL must
+   * have at least cache-min-lifetime remaining, which defaults to the window.
+   * Returns -1 when the cache is off.
+   */
+  protected long getCacheableUntil(
+      final MessageContext msgCtxt, final long window, final long expiryEpochSeconds)
+      throws Exception {
+    if (window == 0L) return -1L;
+    return (expiryEpochSeconds - getCacheMinLifetime(msgCtxt, window)) * 1000L;
+  }
+
+  /*
+   * Signs the string, or returns a cached signature for it. The keyDigest of
+   * the credential qualifies the cache key; never a public id, like the client
+   * email or HMAC access id, which anyone could present with another key.
+   * Pass the result of getCacheableUntil. When out is non-null and the cache is on, sets
+   * sign_cache_hit.
+   */
+  protected byte[] signWithCache(
+      final String keyDigest,
+      final Signer signer,
+      final String stringToSign,
+      final long cacheableUntil,
+      final CalloutOutput out)
+      throws Exception {
+    if (cacheableUntil < 0) return signer.sign(stringToSign);
+    String cacheKey = keyDigest + "\n" + stringToSign;
+    long now = clock.millis();
+    byte[] signature = signatureCache.get(cacheKey, now);
+    if (out != null) {
+      out.set(CalloutOutput.Level.STANDARD, "cache_hit", Boolean.toString(signature != null));
+    }
+    if (signature != null) return signature;
+    signature = signer.sign(stringToSign);
+    if (cacheableUntil > now) {
+      signatureCache.put(cacheKey, signature, cacheableUntil, now);
+    }
+    return signature;
+  }
+
+  protected static String sha256Hex(String s) {
+    SHA256Digest digest = new SHA256Digest();
+    byte[] messageBytes = s.getBytes(StandardCharsets.UTF_8);
+    byte[] output = new byte[digest.getDigestSize()];
+    digest.update(messageBytes, 0, messageBytes.length);
+    digest.doFinal(output, 0);
+    return Hex.toHexString(output);
+  }
+
+  // The batch property holds a JSON array. Each item is either a string, or an
+  // object with a resource, or with an object and optional bucket. A string
+  // beginning with a slash is a full resource; any other string is an object
+  // in the bucket named by the bucket property.
+  protected List<String> getBatchResources(String batchJson, final MessageContext msgCtxt)
+      throws Exception {
+    List<?> items;
+    try {
+      items = JavaxJson.fromJson(batchJson, List.class);
+    } catch (RuntimeException e) {
+      throw new IllegalStateException("the batch is not a JSON array");
+    }
+    if (items == null || items.size() == 0)
+      throw new IllegalStateException("the batch is empty");
+    if (items.size() > BATCH_MAX_ITEMS)
+      throw new IllegalStateException("the batch contains too many items");
+
+    String defaultBucket = getSimpleOptionalProperty("bucket", msgCtxt);
+    List<String> resources = new ArrayList<String>(items.size());
+    for (Object item : items) {
+      String resource = null;
+      String bucket = defaultBucket;
+      String object = null;
+      if (item instanceof String) {
+        if (((String) item).startsWith("/")) resource = (String) item;
+        else object = (String) item;
+      } else if (item instanceof Map) {
+        Map<?, ?> map = (Map<?, ?>) item;
+        if (map.get("resource") instanceof String) resource = (String) map.get("resource");
+        if (map.get("bucket") instanceof String) bucket = (String) map.get("bucket");
+        if (map.get("object") instanceof String) object = (String) map.get("object");
+      }
+      if (resource == null) {
+        if (bucket == null || object == null || bucket.equals("") || object.equals(""))
+          throw new IllegalStateException(
+              "each batch item must specify either resource or bucket + object");
+        resource = "/" + bucket + "/" + PercentEncoder.PATH.encode(object);
+      }
+      resources.add(resource);
+    }
+    return resources;
+  }
+
+  protected interface BatchItemSigner {
+    String sign(int index) throws Exception;
+  }
+
+  // Signs every item of a batch. Small batches are signed on the calling
+  // thread; larger ones are split across the common fork-join pool.
+  protected static String[] signBatch(int count, BatchItemSigner itemSigner) throws Exception {
+    String[] results = new String[count];
+    if (count < BATCH_PARALLEL_THRESHOLD) {
+      for (int i = 0; i < count; i++) {
+        results[i] = itemSigner.sign(i);
+      }
+      return results;
+    }
+    AtomicReference<Exception> failure = new AtomicReference<Exception>();
+    ForkJoinPool.commonPool().invoke(new BatchTask(0, count, itemSigner, results, failure));
+    if (failure.get() != null) throw failure.get();
+    return results;
+  }
+
+  private static class BatchTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final int from;
+    private final int to;
+    private final BatchItemSigner itemSigner;
+    private final String[] results;
+    private final AtomicReference<Exception> failure;
+
+    BatchTask(
+        int from,
+        int to,
+        BatchItemSigner itemSigner,
+        String[] results,
+        AtomicReference<Exception> failure) {
+      this.from = from;
+      this.to = to;
+      this.itemSigner = itemSigner;
+      this.results = results;
+      this.failure = failure;
+    }
+
+    protected void compute() {
+      if (to - from <= BATCH_LEAF_SIZE) {
+        for (int i = from; i < to && failure.get() == null; i++) {
+          try {
+            results[i] = itemSigner.sign(i);
+          } catch (Exception e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+        return;
+      }
+      int mid = (from + to) >>> 1;
+      invokeAll(
+          new BatchTask(from, mid, itemSigner, results, failure),
+          new BatchTask(mid, to, itemSigner, results, failure));
+    }
+  }
+
+  protected void setBatchResult(
+      List<String> resources, String[] signedUrls, final CalloutOutput out) {
+    JsonArrayBuilder builder = Json.createArrayBuilder();
+    for (int i = 0; i < signedUrls.length; i++) {
+      builder.add(
+          Json.createObjectBuilder()
+              .add("resource", resources.get(i))
+              .add("signedurl", signedUrls[i]));
+    }
+    out.set(CalloutOutput.Level.STANDARD, "batch_count", Integer.toString(signedUrls.length));
+    out.set(CalloutOutput.Level.MINIMAL, "signedurls", builder.build());
+  }
+
+  // The signer property: auto, bc-lightweight, jca-sun or jca-bc. Null means auto.
+  protected SignerBackend getSignerBackend(final MessageContext msgCtxt) throws Exception {
+    return SignerBackend.forName(getSimpleOptionalProperty("signer", msgCtxt));
+  }
+
   protected boolean getDebug() {
-    String value = (String) this.properties.get("debug");
+    return getBooleanProperty("debug");
+  }
+
+  /*
+   * The output for one execution, per the output property - minimal,
+   * standard or debug - and the output-format property - variables or json.
+   * Without an output property, the level is debug when the debug property is
+   * true, else standard.
+   */
+  protected CalloutOutput newOutput(final MessageContext msgCtxt) throws Exception {
+    String outputLevel = getSimpleOptionalProperty("output", msgCtxt);
+    CalloutOutput.Level level;
+    if (outputLevel == null) {
+      level = getDebug() ? CalloutOutput.Level.DEBUG : CalloutOutput.Level.STANDARD;
+    } else {
+      try {
+        level = CalloutOutput.Level.valueOf(outputLevel.toUpperCase());
+      } catch (IllegalArgumentException e) {
+        throw new IllegalStateException("output must be one of minimal, standard, debug");
+      }
+    }
+    String format = getSimpleOptionalProperty("output-format", msgCtxt);
+    if (format != null && !format.equals("json") && !format.equals("variables"))
+      throw new IllegalStateException("output-format must be one of variables, json");
+    return new CalloutOutput(msgCtxt, level, "json".equals(format));
+  }
+
+  private boolean getBooleanProperty(String propName) {
+    String value = (String) this.properties.get(propName);
     if (value == null) return false;
     if (value.trim().toLowerCase().equals("true")) return true;
     return false;
   }
 
-  protected String getSimpleOptionalProperty(String propName, MessageContext msgCtxt)
+  // As above, for a property that may refer to variables.
+  protected boolean getBooleanProperty(String propName, MessageContext msgCtxt)
       throws Exception {
-    String value = (String) this.properties.get(propName);
-    if (value == null) {
-      return null;
+    String value = getSimpleOptionalProperty(propName, msgCtxt);
+    if (value == null) return false;
+    return value.trim().toLowerCase().equals("true");
+  }
+
+  // A timer for one execution; a no-op unless the timing property is true.
+  protected PhaseTimer startTimer() {
+    return (timing) ? PhaseTimer.start(metrics) : PhaseTimer.DISABLED;
+  }
+
+  /*
+   * Records the phase times of a successful execution, or counts the error of
+   * a failed one, and sets sign_timing_<phase> to each phase time in
+   * microseconds. When the metrics property is true, also sets sign_metrics
+   * to a snapshot of all callout metrics in the Prometheus text format. Once
+   * a warm-up is done, sets sign_warmup_millis to the time it took.
+   */
+  protected void finishTimer(
+      PhaseTimer timer, MessageContext msgCtxt, CalloutOutput out, Exception error) {
+    if (timer.isEnabled()) {
+      if (error != null) {
+        timer.recordError(error);
+      } else {
+        timer.record();
+        for (SigningMetrics.Phase phase : SigningMetrics.Phase.values()) {
+          out.set(
+              CalloutOutput.Level.MINIMAL,
+              "timing_" + phase.getLabel(),
+              Long.toString(timer.getElapsedNanos(phase) / 1000L));
+        }
+      }
     }
-    value = value.trim();
-    if (value.equals("")) {
+    if (metricsSnapshot) {
+      // written directly, so that it is available after errors too
+      msgCtxt.setVariable(varName("metrics"), SigningMetrics.toPrometheusText());
+    }
+    if (warmup != null && warmup.isDone()) {
+      // likewise written directly
+      msgCtxt.setVariable(varName("warmup_millis"), Long.toString(warmup.getElapsedMillis()));
+      if (warmup.getFailure() != null) {
+        msgCtxt.setVariable(varName("warmup_error"), warmup.getFailure().toString());
+      }
+    }
+  }
+
+  protected String getSimpleOptionalProperty(String propName, MessageContext msgCtxt)
+      throws Exception {
+    PropertyTemplate template = templates.get(propName);
+    if (template == null) {
       return null;
     }
-    value = resolvePropertyValue(value, msgCtxt);
+    String value = template.resolve(msgCtxt);
     if (value == null || value.equals("")) {
       return null;
     }
@@ -270,15 +857,11 @@ public abstract class SigningCalloutBase {
 
   protected String getSimpleRequiredProperty(String propName, MessageContext msgCtxt)
       throws Exception {
-    String value = (String) this.properties.get(propName);
-    if (value == null) {
+    PropertyTemplate template = templates.get(propName);
+    if (template == null) {
       throw new IllegalStateException(propName + " resolves to an empty string");
     }
-    value = value.trim();
-    if (value.equals("")) {
-      throw new IllegalStateException(propName + " resolves to an empty string");
-    }
-    value = resolvePropertyValue(value, msgCtxt);
+    String value = template.resolve(msgCtxt);
     if (value == null || value.equals("")) {
       throw new IllegalStateException(propName + " resolves to an empty string");
     }
@@ -288,20 +871,10 @@ public abstract class SigningCalloutBase {
   // If the value of a property contains any pairs of curlies,
   // eg, {apiproxy.name}, then "resolve" the value by de-referencing
   // the context variables whose names appear between curlies.
+  // Callouts resolve their own properties through templates compiled
+  // at construction; this is for one-off strings.
   protected static String resolvePropertyValue(String spec, MessageContext msgCtxt) {
-    Matcher matcher = variableReferencePattern.matcher(spec);
-    StringBuffer sb = new StringBuffer();
-    while (matcher.find()) {
-      matcher.appendReplacement(sb, "");
-      sb.append(matcher.group(1));
-      Object v = msgCtxt.getVariable(matcher.group(2));
-      if (v != null) {
-        sb.append((String) v);
-      }
-      sb.append(matcher.group(3));
-    }
-    matcher.appendTail(sb);
-    return sb.toString();
+    return PropertyTemplate.compile(spec).resolve(msgCtxt);
   }
 
   protected void setExceptionVariables(Exception exc1, MessageContext msgCtxt) {
@@ -0,0 +1,122 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts.rsa;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+/*
+ * A clock with one-second resolution that caches the strings the callouts
+ * derive from the current time: the V4 timestamp, the date stamp, and the
+ * credential scope. They are formatted once per second, not once per request.
+ * The cached tick is replaced without locking; two threads that cross a
+ * second boundary together may each format the new tick, which is harmless.
+ * Tests can supply a fixed clock.
+ */
+public class SigningClock {
+  private static final DateTimeFormatter timestampFormatter =
+      DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+  // the location in the V4 credential scope; GCS accepts any value here
+  public static final String REGION = "us";
+  private static final String credentialScopeSuffix = "/" + REGION + "/storage/goog4_request";
+
+  // declared after the formatter, which the initial ticks use
+  public static final SigningClock SYSTEM = new SigningClock(Clock.systemUTC());
+
+  private final Clock clock;
+  private volatile Tick current = new Tick(0L);
+  private volatile Tick windowStart = new Tick(0L);
+
+  public SigningClock(Clock clock) {
+    this.clock = clock;
+  }
+
+  public static SigningClock fixed(Instant instant) {
+    return new SigningClock(Clock.fixed(instant, ZoneOffset.UTC));
+  }
+
+  public static final class Tick {
+    private final long epochSecond;
+    private final Instant instant;
+    private final String timestamp;
+    private final String dateStamp;
+    private final String credentialScope;
+
+    private Tick(long epochSecond) {
+      this.epochSecond = epochSecond;
+      this.instant = Instant.ofEpochSecond(epochSecond);
+      this.timestamp = ZonedDateTime.ofInstant(instant, ZoneOffset.UTC).format(timestampFormatter);
+      this.dateStamp = timestamp.substring(0, 8);
+      this.credentialScope = dateStamp + credentialScopeSuffix;
+    }
+
+    public long getEpochSecond() {
+      return epochSecond;
+    }
+
+    public Instant getInstant() {
+      return instant;
+    }
+
+    // yyyyMMdd'T'HHmmss'Z', as used for X-Goog-Date
+    public String getTimestamp() {
+      return timestamp;
+    }
+
+    // yyyyMMdd
+    public String getDateStamp() {
+      return dateStamp;
+    }
+
+    // date/us/storage/goog4_request
+    public String getCredentialScope() {
+      return credentialScope;
+    }
+  }
+
+  public long millis() {
+    return clock.millis();
+  }
+
+  public Tick now() {
+    long epochSecond = Math.floorDiv(clock.millis(), 1000L);
+    Tick tick = current;
+    if (tick.epochSecond != epochSecond) {
+      tick = new Tick(epochSecond);
+      current = tick;
+    }
+    return tick;
+  }
+
+  /*
+   * The current time rounded down to the start of a window of the given
+   * width, in seconds. With a width of zero, the same as now().
+   */
+  public Tick now(long window) {
+    if (window == 0L) return now();
+    long epochSecond = Math.floorDiv(clock.millis(), 1000L);
+    epochSecond -= Math.floorMod(epochSecond, window);
+    Tick tick = windowStart;
+    if (tick.epochSecond != epochSecond) {
+      tick = new Tick(epochSecond);
+      windowStart = tick;
+    }
+    return tick;
+  }
+}
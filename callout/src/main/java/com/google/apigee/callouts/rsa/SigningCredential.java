@@ -0,0 +1,75 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.callouts.rsa;
+
+/*
+ * What signs a request: a service account key, held locally or by a remote
+ * signer, with GOOG4-RSA-SHA256; or an HMAC key, with GOOG4-HMAC-SHA256. The
+ * id is the service account email, or the HMAC access id. Both are public, as
+ * they appear in every URL; the keyDigest identifies the key material itself,
+ * and qualifies anything cached per key.
+ */
+final class SigningCredential {
+  static final String RSA_ALGORITHM = "GOOG4-RSA-SHA256";
+  static final String HMAC_ALGORITHM = "GOOG4-HMAC-SHA256";
+
+  final String algorithm;
+  final String id;
+  final String keyDigest;
+  private final SigningKey signingKey;
+  private final Signer remoteSigner;
+  private final String hmacSecret;
+
+  private SigningCredential(
+      String algorithm,
+      String id,
+      String keyDigest,
+      SigningKey signingKey,
+      Signer remoteSigner,
+      String hmacSecret) {
+    this.algorithm = algorithm;
+    this.id = id;
+    this.keyDigest = keyDigest;
+    this.signingKey = signingKey;
+    this.remoteSigner = remoteSigner;
+    this.hmacSecret = hmacSecret;
+  }
+
+  static SigningCredential rsa(SigningKey signingKey) {
+    String clientEmail = signingKey.getClientEmail();
+    if (clientEmail == null)
+      throw new IllegalStateException("the service account key data is invalid");
+    return new SigningCredential(
+        RSA_ALGORITHM, clientEmail, signingKey.getKeyDigest(), signingKey, null, null);
+  }
+
+  // The configDigest identifies the remote signer: its URLs and authorization.
+  static SigningCredential remote(String clientEmail, String configDigest, Signer remoteSigner) {
+    return new SigningCredential(
+        RSA_ALGORITHM, clientEmail, configDigest, null, remoteSigner, null);
+  }
+
+  static SigningCredential hmac(String accessId, String secret) {
+    return new SigningCredential(
+        HMAC_ALGORITHM, accessId, SigningCalloutBase.sha256Hex(secret), null, null, secret);
+  }
+
+  // The backend applies to a local key only; the tick selects the HMAC derived key.
+  Signer getSigner(final SignerBackend backend, final SigningClock.Tick now) throws Exception {
+    if (signingKey != null) return signingKey.getSigner(backend);
+    if (remoteSigner != null) return remoteSigner;
+    return HmacSigner.forScope(hmacSecret, now.getDateStamp(), SigningClock.REGION);
+  }
+}
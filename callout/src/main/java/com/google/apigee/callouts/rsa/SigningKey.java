@@ -0,0 +1,104 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts.rsa;
+
+import java.security.KeyPair;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * The parsed form of a service account key. Instances are held in the shared
+ * key cache and used by many threads at once. The private key is decoded
+ * lazily, on first use, so that problems with the request itself are reported
+ * before problems with the key, and it is then retained for later requests,
+ * along with a ready-to-use signer for each backend that is used.
+ */
+public class SigningKey {
+  private final Map<String, String> serviceAccountInfo;
+  private final String privateKeyPem;
+  private final String password;
+  private final String keyDigest;
+  private volatile KeyPair keyPair;
+  private volatile VerificationKeys verificationKeys;
+  private final AtomicReferenceArray<Signer> signers =
+      new AtomicReferenceArray<Signer>(SignerBackend.values().length);
+
+  public SigningKey(Map<String, String> serviceAccountInfo, String password) {
+    this.serviceAccountInfo = Collections.unmodifiableMap(serviceAccountInfo);
+    this.privateKeyPem = serviceAccountInfo.get("private_key");
+    this.password = password;
+    this.keyDigest = (privateKeyPem != null) ? SigningCalloutBase.sha256Hex(privateKeyPem) : "";
+  }
+
+  public Map<String, String> getServiceAccountInfo() {
+    return serviceAccountInfo;
+  }
+
+  public String getClientEmail() {
+    return serviceAccountInfo.get("client_email");
+  }
+
+  // A digest of the private key, which identifies the key without revealing it.
+  String getKeyDigest() {
+    return keyDigest;
+  }
+
+  public KeyPair getKeyPair() throws Exception {
+    KeyPair kp = keyPair;
+    if (kp == null) {
+      synchronized (this) {
+        kp = keyPair;
+        if (kp == null) {
+          kp = SigningCalloutBase.readKeyPair(privateKeyPem, password);
+          keyPair = kp;
+        }
+      }
+    }
+    return kp;
+  }
+
+  // The signer from the fastest backend.
+  public Signer getSigner() throws Exception {
+    return getSigner(null);
+  }
+
+  // The signer from the given backend; null means the fastest.
+  public Signer getSigner(SignerBackend backend) throws Exception {
+    if (backend == null) backend = SignerBackend.fastest(getKeyPair().getPrivate());
+    Signer s = signers.get(backend.ordinal());
+    if (s == null) {
+      synchronized (this) {
+        s = signers.get(backend.ordinal());
+        if (s == null) {
+          s = backend.create(getKeyPair().getPrivate());
+          signers.set(backend.ordinal(), s);
+        }
+      }
+    }
+    return s;
+  }
+
+  // The public key, for the verifiers; racing threads may each wrap it, which is harmless.
+  VerificationKeys getVerificationKeys() throws Exception {
+    VerificationKeys keys = verificationKeys;
+    if (keys == null) {
+      keys = VerificationKeys.of(getKeyPair().getPublic());
+      verificationKeys = keys;
+    }
+    return keys;
+  }
+}
@@ -20,21 +20,27 @@ import com.apigee.flow.execution.ExecutionResult;
 import com.apigee.flow.execution.IOIntensive;
 import com.apigee.flow.execution.spi.Execution;
 import com.apigee.flow.message.MessageContext;
-import java.net.URLEncoder;
-import java.security.KeyPair;
+import com.google.apigee.callouts.rsa.CalloutOutput.Level;
+import com.google.apigee.metrics.PhaseTimer;
+import com.google.apigee.metrics.SigningMetrics.Phase;
+import java.util.List;
 import java.util.Map;
 import org.bouncycastle.util.encoders.Base64;
 
 @IOIntensive
 public class V2SignedUrlCallout extends SigningCalloutBase implements Execution {
-  protected static final String V2_SIGNED_URL_SPEC =
-      "https://storage.googleapis.com{sign_resource}?GoogleAccessId={sign_accessid}&Expires={sign_expiration}&Signature={sign_signature}";
-
   public V2SignedUrlCallout(Map properties) {
-    super(properties);
+    this(properties, SigningClock.SYSTEM);
+  }
+
+  public V2SignedUrlCallout(Map properties, SigningClock clock) {
+    super(properties, clock);
   }
 
-  private String getSigningBase(final MessageContext msgCtxt) throws Exception {
+  // Everything in the string-to-sign that precedes the resource.
+  private String getSigningBasePrefix(
+      final MessageContext msgCtxt, final CalloutOutput out, final String expiration)
+      throws Exception {
 
     // StringToSign = HTTP_Verb + "\n" +
     //                Content_MD5 + "\n" +
@@ -44,48 +50,123 @@ public class V2SignedUrlCallout extends SigningCalloutBase implements Execution
     //                Canonicalized_Resource
 
     String verb = getSimpleRequiredProperty("verb", msgCtxt);
-    String contentMd5 = getSimpleOptionalProperty("content-md5", msgCtxt);
-    String contentType = getSimpleOptionalProperty("content-type", msgCtxt);
-    long expirationInSeconds = getExpiry(msgCtxt);
-    String resource = getResource(msgCtxt);
+    out.set(Level.STANDARD, "verb", verb);
+    return signingBasePrefix(
+        verb,
+        getSimpleOptionalProperty("content-md5", msgCtxt),
+        getSimpleOptionalProperty("content-type", msgCtxt),
+        expiration);
+  }
+
+  // shared with V2SignedUrlVerifier
+  static String signingBasePrefix(
+      String verb, String contentMd5, String contentType, String expiration) {
     String canonicalizedExtensionHeaders = "";
-    String stringToSign =
-        verb
-            + "\n"
-            + (contentMd5 != null ? contentMd5 : "")
-            + "\n"
-            + (contentType != null ? contentType : "")
-            + "\n"
-            + expirationInSeconds
-            + "\n"
-            + canonicalizedExtensionHeaders
-            + resource;
-    msgCtxt.setVariable(varName("verb"), verb);
-    msgCtxt.setVariable(varName("signing_string"), stringToSign);
-    return stringToSign;
+    return verb
+        + "\n"
+        + (contentMd5 != null ? contentMd5 : "")
+        + "\n"
+        + (contentType != null ? contentType : "")
+        + "\n"
+        + expiration
+        + "\n"
+        + canonicalizedExtensionHeaders;
   }
 
-  protected String getAccessId(final MessageContext msgCtxt, final Map<String, String> serviceAccountInfo) throws Exception {
+  protected String getAccessId(final MessageContext msgCtxt, final SigningCredential credential)
+      throws Exception {
     String accessId = getSimpleOptionalProperty("access-id", msgCtxt);
-    return (accessId == null) ? serviceAccountInfo.get("client_email") : accessId;
+    return (accessId == null) ? credential.id : accessId;
+  }
+
+  private void executeBatch(
+      final MessageContext msgCtxt,
+      final CalloutOutput out,
+      final String batch,
+      final PhaseTimer timer)
+      throws Exception {
+    final long window = getCacheWindow(msgCtxt);
+    final long expiry = getExpiry(msgCtxt, out, clock.now(window).getEpochSecond(), 0);
+    final String expiration = Long.toString(expiry);
+    final String signingBasePrefix = getSigningBasePrefix(msgCtxt, out, expiration);
+    final List<String> resources = getBatchResources(batch, msgCtxt);
+    timer.mark(Phase.PROPERTIES);
+    final SigningCredential credential = getServiceAccountCredential(msgCtxt);
+    timer.mark(Phase.KEY);
+    final long cacheableUntil = getCacheableUntil(msgCtxt, window, expiry);
+    final String accessId = getAccessId(msgCtxt, credential);
+    out.set(Level.STANDARD, "accessid", accessId);
+    timer.mark(Phase.PROPERTIES);
+
+    // each item is canonicalized, signed and assembled in one task
+    final Signer signer = credential.getSigner(getSignerBackend(msgCtxt), null);
+    String[] signedUrls =
+        signBatch(
+            resources.size(),
+            i -> {
+              String resource = resources.get(i);
+              byte[] signature =
+                  signWithCache(
+                      credential.keyDigest,
+                      signer,
+                      signingBasePrefix + resource,
+                      cacheableUntil,
+                      null);
+              return SignedUrl.v2(resource, accessId, expiration, signature).getUrl();
+            });
+    timer.mark(Phase.SIGN);
+    setBatchResult(resources, signedUrls, out);
+    timer.mark(Phase.ASSEMBLE);
   }
 
   public ExecutionResult execute(final MessageContext msgCtxt, final ExecutionContext execContext) {
+    PhaseTimer timer = startTimer();
     try {
-      String signingBase = getSigningBase(msgCtxt);
-      Map<String, String> serviceAccountInfo = getServiceAccountKey(msgCtxt);
-      KeyPair keypair = readKeyPair(serviceAccountInfo.get("private_key"), null);
-      byte[] resultBytes = sign_RSA_SHA256(signingBase, keypair);
-      String signatureVar = varName("signature");
-      String signature = Base64.toBase64String(resultBytes);
-      msgCtxt.setVariable(signatureVar + "_unencoded", signature);
-      msgCtxt.setVariable(signatureVar, URLEncoder.encode(signature, "UTF-8"));
-      String accessId = getAccessId(msgCtxt, serviceAccountInfo);
-      msgCtxt.setVariable(varName("accessid"), accessId);
-      msgCtxt.setVariable(varName("signedurl"), resolvePropertyValue(V2_SIGNED_URL_SPEC, msgCtxt));
+      CalloutOutput out = newOutput(msgCtxt);
+      String batch = getSimpleOptionalProperty("batch", msgCtxt);
+      if (batch != null) {
+        executeBatch(msgCtxt, out, batch, timer);
+        finishTimer(timer, msgCtxt, out, null);
+        out.finish();
+        return ExecutionResult.SUCCESS;
+      }
+
+      long window = getCacheWindow(msgCtxt);
+      long expiry = getExpiry(msgCtxt, out, clock.now(window).getEpochSecond(), 0);
+      String expiration = Long.toString(expiry);
+      String signingBasePrefix = getSigningBasePrefix(msgCtxt, out, expiration);
+      String resource = getResource(msgCtxt, out);
+      timer.mark(Phase.PROPERTIES);
+      String signingBase = signingBasePrefix + resource;
+      out.set(Level.STANDARD, "signing_string", signingBase);
+      timer.mark(Phase.CANONICALIZE);
+      SigningCredential credential = getServiceAccountCredential(msgCtxt);
+      timer.mark(Phase.KEY);
+      byte[] resultBytes =
+          signWithCache(
+              credential.keyDigest,
+              credential.getSigner(getSignerBackend(msgCtxt), null),
+              signingBase,
+              getCacheableUntil(msgCtxt, window, expiry),
+              out);
+      timer.mark(Phase.SIGN);
+      if (out.wants(Level.STANDARD)) {
+        out.set(Level.STANDARD, "signature_unencoded", Base64.toBase64String(resultBytes));
+      }
+      String accessId = getAccessId(msgCtxt, credential);
+      out.set(Level.STANDARD, "accessid", accessId);
+      SignedUrl signedUrl = SignedUrl.v2(resource, accessId, expiration, resultBytes);
+      if (out.wants(Level.STANDARD)) {
+        out.set(Level.STANDARD, "signature", signedUrl.getEncodedSignature());
+      }
+      out.set(Level.MINIMAL, "signedurl", signedUrl.getUrl());
+      timer.mark(Phase.ASSEMBLE);
+      finishTimer(timer, msgCtxt, out, null);
+      out.finish();
       return ExecutionResult.SUCCESS;
     } catch (IllegalStateException exc1) {
       setExceptionVariables(exc1, msgCtxt);
+      finishTimer(timer, msgCtxt, null, exc1);
       return ExecutionResult.ABORT;
     } catch (Exception e) {
       // if (getDebug()) {
@@ -93,6 +174,7 @@ public class V2SignedUrlCallout extends SigningCalloutBase implements Execution
       // }
       setExceptionVariables(e, msgCtxt);
       msgCtxt.setVariable(varName("stacktrace"), exceptionStackTrace(e));
+      finishTimer(timer, msgCtxt, null, e);
       return ExecutionResult.ABORT;
     }
   }
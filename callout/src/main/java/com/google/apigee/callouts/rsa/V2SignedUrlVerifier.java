@@ -0,0 +1,91 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.callouts.rsa;
+
+import com.apigee.flow.execution.IOIntensive;
+import com.apigee.flow.message.MessageContext;
+import com.google.apigee.callouts.rsa.CalloutOutput.Level;
+import com.google.apigee.metrics.PhaseTimer;
+import com.google.apigee.metrics.SigningMetrics.Phase;
+import java.util.Map;
+import org.bouncycastle.util.encoders.Base64;
+import org.bouncycastle.util.encoders.DecoderException;
+
+/*
+ * Verifies a V2 signed URL. The string-to-sign is rebuilt just as
+ * V2SignedUrlCallout builds it, from the verb (default GET), content-md5 and
+ * content-type properties and the Expires parameter of the URL.
+ */
+@IOIntensive
+public class V2SignedUrlVerifier extends SignedUrlVerifierBase {
+
+  public V2SignedUrlVerifier(Map properties) {
+    this(properties, SigningClock.SYSTEM);
+  }
+
+  public V2SignedUrlVerifier(Map properties, SigningClock clock) {
+    super(properties, clock);
+  }
+
+  private static long parseExpires(String expires) {
+    try {
+      return Long.parseLong(expires);
+    } catch (NumberFormatException e) {
+      throw new IllegalStateException("the Expires parameter is invalid");
+    }
+  }
+
+  private static byte[] decodeSignature(String signature) {
+    try {
+      return Base64.decode(signature);
+    } catch (DecoderException e) {
+      throw new IllegalStateException("the Signature parameter is invalid");
+    }
+  }
+
+  protected void verify(
+      final MessageContext msgCtxt,
+      final CalloutOutput out,
+      final ParsedUrl url,
+      final SigningClock.Tick now,
+      final PhaseTimer timer)
+      throws Exception {
+    String accessId = url.getRequiredParam("GoogleAccessId");
+    String expires = url.getRequiredParam("Expires");
+    long expiration = parseExpires(expires);
+    out.set(Level.MINIMAL, "client_email", accessId);
+    out.set(Level.STANDARD, "expiration", expires);
+    checkExpiry(expiration, now);
+    byte[] signature = decodeSignature(url.getRequiredParam("Signature"));
+    String verb = getSimpleOptionalProperty("verb", msgCtxt);
+    timer.mark(Phase.PROPERTIES);
+
+    String stringToSign =
+        V2SignedUrlCallout.signingBasePrefix(
+                (verb != null) ? verb : "GET",
+                getSimpleOptionalProperty("content-md5", msgCtxt),
+                getSimpleOptionalProperty("content-type", msgCtxt),
+                expires)
+            + url.resource;
+    out.set(Level.DEBUG, "signing_string", stringToSign);
+    timer.mark(Phase.CANONICALIZE);
+
+    VerificationKeys keys = getVerificationKeys(msgCtxt, accessId);
+    timer.mark(Phase.KEY);
+    if (!keys.verify(stringToSign, signature))
+      throw new IllegalStateException("the signature is invalid");
+    timer.mark(Phase.SIGN);
+  }
+}
@@ -0,0 +1,167 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.callouts.rsa;
+
+import com.apigee.flow.execution.ExecutionContext;
+import com.apigee.flow.execution.ExecutionResult;
+import com.apigee.flow.execution.IOIntensive;
+import com.apigee.flow.execution.spi.Execution;
+import com.apigee.flow.message.MessageContext;
+import com.google.apigee.callouts.rsa.CalloutOutput.Level;
+import com.google.apigee.encoding.BinaryEncoder;
+import com.google.apigee.metrics.PhaseTimer;
+import com.google.apigee.metrics.SigningMetrics.Phase;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Map;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+
+/*
+ * Generates a V4 POST policy document, for uploads from an HTML form directly
+ * to GCS. One signed policy can cover any number of uploads into a bucket,
+ * optionally restricted to objects under a key prefix, within a range of
+ * sizes, with a given content-type, until the policy expires.
+ */
+@IOIntensive
+public class V4PostPolicyCallout extends SigningCalloutBase implements Execution {
+  public V4PostPolicyCallout(Map properties) {
+    this(properties, SigningClock.SYSTEM);
+  }
+
+  public V4PostPolicyCallout(Map properties, SigningClock clock) {
+    super(properties, clock);
+  }
+
+  // the content-length-range property: min,max in bytes
+  private static long[] parseLengthRange(String range) {
+    String[] parts = range.split(",", 2);
+    try {
+      long[] minMax = {Long.parseLong(parts[0].trim()), Long.parseLong(parts[1].trim())};
+      if (minMax[0] >= 0 && minMax[0] <= minMax[1]) return minMax;
+    } catch (RuntimeException e) {
+      // fall through
+    }
+    throw new IllegalStateException("content-length-range must be min,max");
+  }
+
+  /*
+   * The conditions of the policy, and the form fields that satisfy them.
+   * The key is the object property, exactly, or else the key-prefix property,
+   * which the form completes with the name of the uploaded file.
+   */
+  private JsonObject getPolicyDocument(
+      final MessageContext msgCtxt,
+      final String bucket,
+      final SigningCredential credential,
+      final SigningClock.Tick now,
+      final long expiry,
+      final JsonObjectBuilder fields)
+      throws Exception {
+    String object = getSimpleOptionalProperty("object", msgCtxt);
+    String keyPrefix = getSimpleOptionalProperty("key-prefix", msgCtxt);
+    String lengthRange = getSimpleOptionalProperty("content-length-range", msgCtxt);
+    String contentType = getSimpleOptionalProperty("content-type", msgCtxt);
+    String credentialWithScope = credential.id + "/" + now.getCredentialScope();
+
+    JsonArrayBuilder conditions = Json.createArrayBuilder();
+    conditions.add(Json.createObjectBuilder().add("bucket", bucket));
+    if (object != null) {
+      conditions.add(Json.createObjectBuilder().add("key", object));
+      fields.add("key", object);
+    } else {
+      conditions.add(
+          Json.createArrayBuilder()
+              .add("starts-with")
+              .add("$key")
+              .add(keyPrefix != null ? keyPrefix : ""));
+      fields.add("key", (keyPrefix != null ? keyPrefix : "") + "${filename}");
+    }
+    if (lengthRange != null) {
+      long[] minMax = parseLengthRange(lengthRange);
+      conditions.add(
+          Json.createArrayBuilder().add("content-length-range").add(minMax[0]).add(minMax[1]));
+    }
+    if (contentType != null) {
+      conditions.add(Json.createObjectBuilder().add("Content-Type", contentType));
+      fields.add("Content-Type", contentType);
+    }
+    conditions.add(Json.createObjectBuilder().add("x-goog-date", now.getTimestamp()));
+    conditions.add(Json.createObjectBuilder().add("x-goog-credential", credentialWithScope));
+    conditions.add(Json.createObjectBuilder().add("x-goog-algorithm", credential.algorithm));
+    fields.add("x-goog-date", now.getTimestamp());
+    fields.add("x-goog-credential", credentialWithScope);
+    fields.add("x-goog-algorithm", credential.algorithm);
+
+    return Json.createObjectBuilder()
+        .add("conditions", conditions)
+        .add("expiration", Instant.ofEpochSecond(expiry).toString())
+        .build();
+  }
+
+  public ExecutionResult execute(final MessageContext msgCtxt, final ExecutionContext execContext) {
+    PhaseTimer timer = startTimer();
+    try {
+      CalloutOutput out = newOutput(msgCtxt);
+      long window = getCacheWindow(msgCtxt);
+      SigningClock.Tick now = clock.now(window);
+      long expiry = getExpiry(msgCtxt, out, now.getEpochSecond(), 604800);
+      timer.mark(Phase.PROPERTIES);
+      SigningCredential credential = getServiceAccountCredential(msgCtxt);
+      timer.mark(Phase.KEY);
+      String bucket = getSimpleRequiredProperty("bucket", msgCtxt);
+      JsonObjectBuilder fields = Json.createObjectBuilder();
+      JsonObject policyDocument =
+          getPolicyDocument(msgCtxt, bucket, credential, now, expiry, fields);
+      timer.mark(Phase.PROPERTIES);
+      String policy =
+          Base64.getEncoder()
+              .encodeToString(policyDocument.toString().getBytes(StandardCharsets.UTF_8));
+      out.set(Level.STANDARD, "policy_document", policyDocument);
+      timer.mark(Phase.CANONICALIZE);
+      byte[] signatureBytes =
+          signWithCache(
+              credential.keyDigest,
+              credential.getSigner(getSignerBackend(msgCtxt), now),
+              policy,
+              getCacheableUntil(msgCtxt, window, expiry),
+              out);
+      timer.mark(Phase.SIGN);
+      String signature = BinaryEncoder.toHex(signatureBytes);
+      fields.add("x-goog-signature", signature);
+      fields.add("policy", policy);
+      out.set(Level.MINIMAL, "url", SignedUrl.ORIGIN + "/" + bucket + "/");
+      out.set(Level.MINIMAL, "policy", policy);
+      out.set(Level.MINIMAL, "signature", signature);
+      out.set(Level.MINIMAL, "form_fields", fields.build());
+      timer.mark(Phase.ASSEMBLE);
+      finishTimer(timer, msgCtxt, out, null);
+      out.finish();
+      return ExecutionResult.SUCCESS;
+    } catch (IllegalStateException exc1) {
+      setExceptionVariables(exc1, msgCtxt);
+      finishTimer(timer, msgCtxt, null, exc1);
+      return ExecutionResult.ABORT;
+    } catch (Exception e) {
+      setExceptionVariables(e, msgCtxt);
+      msgCtxt.setVariable(varName("stacktrace"), exceptionStackTrace(e));
+      finishTimer(timer, msgCtxt, null, e);
+      return ExecutionResult.ABORT;
+    }
+  }
+}
@@ -19,221 +19,429 @@ import com.apigee.flow.execution.ExecutionContext;
 import com.apigee.flow.execution.ExecutionResult;
 import com.apigee.flow.execution.IOIntensive;
 import com.apigee.flow.execution.spi.Execution;
+import com.apigee.flow.message.Message;
 import com.apigee.flow.message.MessageContext;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
-import java.security.KeyPair;
-import java.time.Instant;
-import java.time.ZoneOffset;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
+import com.google.apigee.callouts.rsa.CalloutOutput.Level;
+import com.google.apigee.encoding.BinaryEncoder;
+import com.google.apigee.encoding.PercentEncoder;
+import com.google.apigee.metrics.PhaseTimer;
+import com.google.apigee.metrics.SigningMetrics.Phase;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.TreeMap;
 import org.bouncycastle.crypto.digests.SHA256Digest;
 
 @IOIntensive
 public class V4SignedUrlCallout extends SigningCalloutBase implements Execution {
-  private static final DateTimeFormatter formatter =
-      DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+  private static final String CONTENT_SHA256_HEADER = "x-goog-content-sha256";
+  private static final int CONTENT_BUFFER_BYTES = 16 * 1024;
+  // one buffer per thread, reused for every message hashed on it
+  private static final ThreadLocal<byte[]> contentBuffers =
+      ThreadLocal.withInitial(() -> new byte[CONTENT_BUFFER_BYTES]);
 
-  private static final String V4_SIGNED_URL_SPEC =
-      "https://storage.googleapis.com{sign_resource}?{sign_canonical_query_string}&X-Goog-Signature={sign_signature}";
-  private static final String rsaSigningAlgorithm = "GOOG4-RSA-SHA256";
+  // computed once when the property is absent or holds no variable references
+  private final CanonicalHeaders literalCanonicalHeaders;
+  private final Map<String, String> literalAdditionalQuery;
 
   public V4SignedUrlCallout(Map properties) {
-    super(properties);
+    this(properties, SigningClock.SYSTEM);
   }
 
-  private String encodeURIComponent(String s) {
-    try {
-      return URLEncoder.encode(s, "UTF-8").replaceAll("\\+", "%20");
-    } catch (UnsupportedEncodingException e) {
-      throw new RuntimeException(e);
-    }
+  public V4SignedUrlCallout(Map properties, SigningClock clock) {
+    super(properties, clock);
+    String headers = getLiteralProperty("addl-headers");
+    this.literalCanonicalHeaders =
+        (headers != null)
+            ? canonicalizeHeaders(parseAdditionalHeaders(headers))
+            : (!hasProperty("addl-headers"))
+                ? canonicalizeHeaders(Collections.<String, String>emptyMap())
+                : null;
+    String query = getLiteralProperty("addl-query");
+    this.literalAdditionalQuery = (query != null) ? parseAdditionalQuery(query) : null;
   }
 
-  private String headersToString(Map<String, String> headers) {
-    // TODO: handle the case of a duplicated header name
-    return headers.entrySet().stream()
-        .sorted(Map.Entry.comparingByKey())
-        .map(entry -> entry.getKey().toLowerCase().trim() + ":" + entry.getValue().trim())
-        .collect(Collectors.joining("\n"));
+  // shared with V4SignedUrlVerifier
+  static class CanonicalHeaders {
+    String canonicalHeadersString;
+    String signedHeaders;
   }
 
-  private String queryToString(Map<String, String> query) {
-    return query.entrySet().stream()
-        .sorted(Map.Entry.comparingByKey())
-        .map(entry -> entry.getKey() + "=" + encodeURIComponent(entry.getValue()))
-        .collect(Collectors.joining("&"));
+  static CanonicalHeaders canonicalizeHeaders(Map<String, String> additionalHeaders) {
+    // TODO: handle the case of a duplicated header name
+    TreeMap<String, String> sorted = new TreeMap<String, String>();
+    sorted.put("host", "storage.googleapis.com");
+    sorted.putAll(additionalHeaders);
+    StringBuilder headers = new StringBuilder();
+    StringBuilder signedHeaders = new StringBuilder();
+    for (Map.Entry<String, String> entry : sorted.entrySet()) {
+      String name = entry.getKey().toLowerCase().trim();
+      if (headers.length() > 0) {
+        headers.append('\n');
+        signedHeaders.append(';');
+      }
+      headers.append(name).append(':').append(entry.getValue().trim());
+      signedHeaders.append(name);
+    }
+    CanonicalHeaders result = new CanonicalHeaders();
+    result.canonicalHeadersString = headers.toString();
+    result.signedHeaders = signedHeaders.toString();
+    return result;
   }
 
-  private Map<String, String> sortMapByKey(Map<String, String> map) {
-    return map.entrySet().stream()
-        .sorted(Map.Entry.comparingByKey())
-        .collect(
-            Collectors.toMap(
-                Map.Entry::getKey,
-                Map.Entry::getValue,
-                (oldValue, newValue) -> oldValue,
-                LinkedHashMap::new));
+  static String queryToString(Map<String, String> sortedQuery) {
+    StringBuilder sb = new StringBuilder(256);
+    for (Map.Entry<String, String> entry : sortedQuery.entrySet()) {
+      if (sb.length() > 0) sb.append('&');
+      sb.append(entry.getKey()).append('=');
+      PercentEncoder.QUERY.encode(entry.getValue(), sb);
+    }
+    return sb.toString();
   }
 
-  private Map<String, String> getCanonicalHeaders(final MessageContext msgCtxt) throws Exception {
+  static Map<String, String> parseAdditionalHeaders(String additionalHeaders) {
     Map<String, String> headers = new HashMap<String, String>();
-    headers.put("host", "storage.googleapis.com");
-    String additionalHeaders = getSimpleOptionalProperty("addl-headers", msgCtxt);
-    if (additionalHeaders != null) {
-      String[] items = additionalHeaders.split("\\|");
-      Arrays.stream(items)
-          .forEach(
-              item -> {
-                if (item != null && !item.equals("")) {
-                  String[] kv = item.split(":", 2);
-                  if (kv.length == 2
-                      && kv[0] != null
-                      && !kv[0].equals("")
-                      && kv[1] != null
-                      && !kv[1].equals("")) {
-                    headers.put(kv[0].toLowerCase(), kv[1]);
-                  }
+    String[] items = additionalHeaders.split("\\|");
+    Arrays.stream(items)
+        .forEach(
+            item -> {
+              if (item != null && !item.equals("")) {
+                String[] kv = item.split(":", 2);
+                if (kv.length == 2
+                    && kv[0] != null
+                    && !kv[0].equals("")
+                    && kv[1] != null
+                    && !kv[1].equals("")) {
+                  headers.put(kv[0].toLowerCase(), kv[1]);
                 }
-              });
+              }
+            });
+    return headers;
+  }
+
+  private static Map<String, String> parseAdditionalQuery(String additionalQuery) {
+    Map<String, String> query = new HashMap<String, String>();
+    String[] items = additionalQuery.split("&");
+    Arrays.stream(items)
+        .forEach(
+            item -> {
+              if (item != null && !item.equals("")) {
+                String[] kv = item.split("=", 2);
+                if (kv.length == 2 && !kv[0].equals("") && !kv[1].equals("")) {
+                  query.put(kv[0], kv[1]);
+                }
+              }
+            });
+    return query;
+  }
+
+  // With a contentSha256, the x-goog-content-sha256 header is signed too.
+  private CanonicalHeaders getCanonicalHeaders(
+      final MessageContext msgCtxt, final String contentSha256) throws Exception {
+    if (literalCanonicalHeaders != null && contentSha256 == null) return literalCanonicalHeaders;
+    String additionalHeaders = getSimpleOptionalProperty("addl-headers", msgCtxt);
+    Map<String, String> headers =
+        (additionalHeaders != null)
+            ? parseAdditionalHeaders(additionalHeaders)
+            : Collections.<String, String>emptyMap();
+    if (contentSha256 != null) {
+      headers = new HashMap<String, String>(headers);
+      headers.put(CONTENT_SHA256_HEADER, contentSha256);
     }
+    return canonicalizeHeaders(headers);
+  }
 
-    return sortMapByKey(headers);
+  // The hex SHA-256 of the stream, read in chunks through a reusable buffer.
+  static String contentSha256Hex(InputStream content) throws IOException {
+    SHA256Digest digest = new SHA256Digest();
+    if (content != null) {
+      byte[] buffer = contentBuffers.get();
+      int n;
+      while ((n = content.read(buffer)) != -1) digest.update(buffer, 0, n);
+    }
+    byte[] hash = new byte[digest.getDigestSize()];
+    digest.doFinal(hash, 0);
+    return BinaryEncoder.toHex(hash);
   }
 
-  private String getCredentialScope(final MessageContext msgCtxt) {
-    String nowFormatted = msgCtxt.getVariable(varName("now_formatted"));
-    return nowFormatted.substring(0, 8) + "/us/storage/goog4_request";
+  /*
+   * The payload for the canonical request: the payload property, or, when
+   * payload-from-content is true, the hash of the current message content,
+   * streamed so that a large body is never held as a String.
+   */
+  private String getPayload(
+      final MessageContext msgCtxt, final CalloutOutput out, boolean payloadFromContent)
+      throws Exception {
+    String payload = getSimpleOptionalProperty("payload", msgCtxt);
+    if (!payloadFromContent) return payload;
+    if (payload != null)
+      throw new IllegalStateException("specify either payload or payload-from-content");
+    Message message = msgCtxt.getMessage();
+    if (message == null) throw new IllegalStateException("there is no message to hash");
+    String contentSha256;
+    try (InputStream content = message.getContentAsStream()) {
+      contentSha256 = contentSha256Hex(content);
+    }
+    out.set(Level.STANDARD, "content_sha256", contentSha256);
+    return contentSha256;
   }
 
   private Map<String, String> getCanonicalQuery(
-      final MessageContext msgCtxt, String signedHeaders, String serviceAccountEmail)
+      final MessageContext msgCtxt,
+      final CalloutOutput out,
+      RequestTemplate template,
+      SigningCredential credential,
+      SigningClock.Tick now)
       throws Exception {
-    Map<String, String> query = new HashMap<String, String>();
-    query.put("X-Goog-Algorithm", rsaSigningAlgorithm);
-    query.put("X-Goog-Credential", serviceAccountEmail + "/" + getCredentialScope(msgCtxt));
-    query.put("X-Goog-Date", msgCtxt.getVariable(varName("now_formatted")));
-    Instant now = (Instant) msgCtxt.getVariable(varName("now"));
-    long expiryEpochSeconds = getExpiry(msgCtxt, now, 604800);
-    query.put("X-Goog-Expires", msgCtxt.getVariable(varName("duration")));
-    query.put("X-Goog-SignedHeaders", signedHeaders);
+    Map<String, String> query = new TreeMap<String, String>();
+    query.put("X-Goog-Algorithm", credential.algorithm);
+    query.put("X-Goog-Credential", credential.id + "/" + now.getCredentialScope());
+    query.put("X-Goog-Date", now.getTimestamp());
+    template.expiration = getExpiry(msgCtxt, out, now.getEpochSecond(), 604800);
+    query.put("X-Goog-Expires", Long.toString(template.expiration - now.getEpochSecond()));
+    query.put("X-Goog-SignedHeaders", template.signedHeaders);
 
     // additional query params
-    String additionalQuery = getSimpleOptionalProperty("addl-query", msgCtxt);
-    if (additionalQuery != null) {
-      String[] items = additionalQuery.split("&");
-      Arrays.stream(items)
-          .forEach(
-              item -> {
-                if (item != null && !item.equals("")) {
-                  String[] kv = item.split("=", 2);
-                  if (kv.length == 2 && !kv[0].equals("") && !kv[1].equals("")) {
-                    query.put(kv[0], kv[1]);
-                  }
-                }
-              });
+    if (literalAdditionalQuery != null) {
+      query.putAll(literalAdditionalQuery);
+    } else {
+      String additionalQuery = getSimpleOptionalProperty("addl-query", msgCtxt);
+      if (additionalQuery != null) {
+        query.putAll(parseAdditionalQuery(additionalQuery));
+      }
     }
-    return sortMapByKey(query);
+    return query;
   }
 
-  private String getHashedCanonicalRequest(
-      final MessageContext msgCtxt, final Map<String, String> serviceAccountInfo) throws Exception {
-    // CanonicalRequest =
-    //   HTTP_VERB + "\n" +
-    //   PATH_TO_RESOURCE + "\n" +
-    //   CANONICAL_QUERY_STRING + "\n" +
-    //   CANONICAL_HEADERS + "\n" +
-    //   "\n" +
-    //   SIGNED_HEADERS + "\n" +
-    //   PAYLOAD
-
-    String clientEmail = serviceAccountInfo.get("client_email");
-    if (clientEmail == null)
-      throw new IllegalStateException("the service account key data is invalid");
-
-    Map<String, String> canonicalHeaders = getCanonicalHeaders(msgCtxt);
-    String signedHeaders =
-        canonicalHeaders.keySet().stream()
-            .map(e -> e.toLowerCase().trim())
-            .collect(Collectors.joining(";"));
-
-    String verb = getSimpleRequiredProperty("verb", msgCtxt);
-    String resource = getResource(msgCtxt);
-    String canonicalQueryString =
-        queryToString(getCanonicalQuery(msgCtxt, signedHeaders, clientEmail));
-    msgCtxt.setVariable(varName("canonical_query_string"), canonicalQueryString);
-    String canonicalHeadersString = headersToString(canonicalHeaders);
-    String payload = getSimpleOptionalProperty("payload", msgCtxt);
+  // The parts of the canonical request that do not depend on the resource.
+  // In batch mode, one template serves every object in the batch.
+  static class RequestTemplate {
+    String algorithm;
+    String verb;
+    String canonicalQueryString;
+    String canonicalHeadersString;
+    String signedHeaders;
+    String payload;
+    long expiration;
+
+    void digest(String resource, CanonicalRequestDigest digest) {
+      // CanonicalRequest =
+      //   HTTP_VERB + "\n" +
+      //   PATH_TO_RESOURCE + "\n" +
+      //   CANONICAL_QUERY_STRING + "\n" +
+      //   CANONICAL_HEADERS + "\n" +
+      //   "\n" +
+      //   SIGNED_HEADERS + "\n" +
+      //   PAYLOAD
+      digest
+          .append(verb)
+          .append('\n')
+          .append(resource)
+          .append('\n')
+          .append(canonicalQueryString)
+          .append('\n')
+          .append(canonicalHeadersString)
+          .append('\n')
+          .append('\n')
+          .append(signedHeaders)
+          .append('\n')
+          .append(payload != null ? payload : "UNSIGNED-PAYLOAD");
+    }
 
-    String canonicalRequest =
-        verb
-            + "\n"
-            + resource
-            + "\n"
-            + canonicalQueryString
-            + "\n"
-            + canonicalHeadersString
-            + "\n"
-            + "\n"
-            + signedHeaders
-            + "\n"
-            + (payload != null ? payload : "UNSIGNED-PAYLOAD");
-
-    msgCtxt.setVariable(varName("canonical_request"), canonicalRequest);
+    String hashedCanonicalRequest(String resource) {
+      CanonicalRequestDigest digest = CanonicalRequestDigest.forCurrentThread().reset(false);
+      digest(resource, digest);
+      return BinaryEncoder.toHex(digest.finish());
+    }
+  }
 
-    SHA256Digest digest = new SHA256Digest();
-    byte[] messageBytes = canonicalRequest.getBytes(StandardCharsets.UTF_8);
-    byte[] output = new byte[digest.getDigestSize()];
-    digest.update(messageBytes, 0, messageBytes.length);
-    digest.doFinal(output, 0);
-    return org.bouncycastle.util.encoders.Hex.toHexString(output);
+  // HMAC mode when the hmac-secret property is set; else the service account.
+  private SigningCredential getCredential(final MessageContext msgCtxt) throws Exception {
+    String hmacSecret = getSimpleOptionalProperty("hmac-secret", msgCtxt);
+    if (hmacSecret != null) {
+      return SigningCredential.hmac(
+          getSimpleRequiredProperty("hmac-access-id", msgCtxt), hmacSecret);
+    }
+    return getServiceAccountCredential(msgCtxt);
   }
 
-  private String getStringToSign(
-      final MessageContext msgCtxt, final Map<String, String> serviceAccountInfo) throws Exception {
+  private RequestTemplate getRequestTemplate(
+      final MessageContext msgCtxt,
+      final CalloutOutput out,
+      final SigningCredential credential,
+      final SigningClock.Tick now)
+      throws Exception {
+    RequestTemplate template = new RequestTemplate();
+    template.algorithm = credential.algorithm;
+    boolean payloadFromContent = getBooleanProperty("payload-from-content", msgCtxt);
+    template.payload = getPayload(msgCtxt, out, payloadFromContent);
+    String contentSha256 = null;
+    if (getBooleanProperty("content-sha256-header", msgCtxt)) {
+      // the header carries the content digest, never an arbitrary payload value
+      if (!payloadFromContent)
+        throw new IllegalStateException("content-sha256-header requires payload-from-content");
+      // the client must send the header, with this value, when it uses the URL
+      contentSha256 = template.payload;
+      Message message = msgCtxt.getMessage();
+      if (message != null) message.setHeader(CONTENT_SHA256_HEADER, contentSha256);
+    }
+    CanonicalHeaders canonicalHeaders = getCanonicalHeaders(msgCtxt, contentSha256);
+    template.signedHeaders = canonicalHeaders.signedHeaders;
+
+    template.verb = getSimpleRequiredProperty("verb", msgCtxt);
+    template.canonicalQueryString =
+        queryToString(getCanonicalQuery(msgCtxt, out, template, credential, now));
+    out.set(Level.STANDARD, "canonical_query_string", template.canonicalQueryString);
+    template.canonicalHeadersString = canonicalHeaders.canonicalHeadersString;
+    return template;
+  }
+
+  protected String getHashedCanonicalRequest(
+      final MessageContext msgCtxt, final SigningKey signingKey) throws Exception {
+    CalloutOutput out = newOutput(msgCtxt);
+    RequestTemplate template =
+        getRequestTemplate(msgCtxt, out, SigningCredential.rsa(signingKey), clock.now());
+    return getHashedCanonicalRequest(out, template, getResource(msgCtxt, out));
+  }
+
+  private String getHashedCanonicalRequest(
+      final CalloutOutput out, final RequestTemplate template, final String resource) {
+    if (!out.wants(Level.DEBUG)) {
+      return template.hashedCanonicalRequest(resource);
+    }
+    // keep a copy of the canonical request, for diagnostics
+    CanonicalRequestDigest digest = CanonicalRequestDigest.forCurrentThread().reset(true);
+    template.digest(resource, digest);
+    String hashedCanonicalRequest = BinaryEncoder.toHex(digest.finish());
+    out.set(Level.DEBUG, "canonical_request", digest.getCanonicalRequest());
+    return hashedCanonicalRequest;
+  }
+
+  static String stringToSign(
+      String algorithm,
+      String currentTime,
+      String credentialScope,
+      String hashedCanonicalRequest) {
     // StringToSign =
     //   SIGNING_ALGORITHM + "\n" +
     //   CURRENT_DATETIME + "\n" +
     //   CREDENTIAL_SCOPE + "\n" +
     //   HASHED_CANONICAL_REQUEST
+    return algorithm
+        + "\n"
+        + currentTime
+        + "\n"
+        + credentialScope
+        + "\n"
+        + hashedCanonicalRequest;
+  }
 
+  private String getStringToSign(
+      final CalloutOutput out,
+      final SigningClock.Tick now,
+      final RequestTemplate template,
+      final String resource) {
     String stringToSign =
-        rsaSigningAlgorithm
-            + "\n"
-            + msgCtxt.getVariable(varName("now_formatted"))
-            + "\n"
-            + getCredentialScope(msgCtxt)
-            + "\n"
-            + getHashedCanonicalRequest(msgCtxt, serviceAccountInfo);
-
-    msgCtxt.setVariable(varName("string_to_sign"), stringToSign);
+        stringToSign(
+            template.algorithm,
+            now.getTimestamp(),
+            now.getCredentialScope(),
+            getHashedCanonicalRequest(out, template, resource));
+    out.set(Level.STANDARD, "string_to_sign", stringToSign);
     return stringToSign;
   }
 
+  private void executeBatch(
+      final MessageContext msgCtxt,
+      final CalloutOutput out,
+      final String batch,
+      final long window,
+      final SigningClock.Tick now,
+      final PhaseTimer timer)
+      throws Exception {
+    final SigningCredential credential = getCredential(msgCtxt);
+    timer.mark(Phase.KEY);
+    final List<String> resources = getBatchResources(batch, msgCtxt);
+    final RequestTemplate template = getRequestTemplate(msgCtxt, out, credential, now);
+    final String currentTime = now.getTimestamp();
+    final String credentialScope = now.getCredentialScope();
+    final long cacheableUntil = getCacheableUntil(msgCtxt, window, template.expiration);
+    timer.mark(Phase.PROPERTIES);
+
+    // each item is canonicalized, signed and assembled in one task
+    final Signer signer = credential.getSigner(getSignerBackend(msgCtxt), now);
+    String[] signedUrls =
+        signBatch(
+            resources.size(),
+            i -> {
+              String resource = resources.get(i);
+              String stringToSign =
+                  stringToSign(
+                      template.algorithm,
+                      currentTime,
+                      credentialScope,
+                      template.hashedCanonicalRequest(resource));
+              return SignedUrl.v4(
+                      resource,
+                      template.canonicalQueryString,
+                      signWithCache(
+                          credential.keyDigest, signer, stringToSign, cacheableUntil, null))
+                  .getUrl();
+            });
+    timer.mark(Phase.SIGN);
+    setBatchResult(resources, signedUrls, out);
+    timer.mark(Phase.ASSEMBLE);
+  }
+
   public ExecutionResult execute(final MessageContext msgCtxt, final ExecutionContext execContext) {
+    PhaseTimer timer = startTimer();
     try {
-      final Instant now = Instant.now();
-      msgCtxt.setVariable(varName("now"), now);
-      final String currentTime = ZonedDateTime.ofInstant(now, ZoneOffset.UTC).format(formatter);
-      msgCtxt.setVariable(varName("now_formatted"), currentTime);
-
-      Map<String, String> serviceAccountInfo = getServiceAccountKey(msgCtxt);
-      String stringToSign = getStringToSign(msgCtxt, serviceAccountInfo);
-      KeyPair keypair = readKeyPair(serviceAccountInfo.get("private_key"), null);
-      byte[] signatureBytes = sign_RSA_SHA256(stringToSign, keypair);
-      String signatureVar = varName("signature");
-      String hexSignature = org.bouncycastle.util.encoders.Hex.toHexString(signatureBytes);
-      msgCtxt.setVariable(signatureVar, hexSignature);
-      msgCtxt.setVariable(varName("signedurl"), resolvePropertyValue(V4_SIGNED_URL_SPEC, msgCtxt));
+      final CalloutOutput out = newOutput(msgCtxt);
+      final long window = getCacheWindow(msgCtxt);
+      final SigningClock.Tick now = clock.now(window);
+      out.set(Level.STANDARD, "now", now.getInstant());
+      out.set(Level.STANDARD, "now_formatted", now.getTimestamp());
+
+      String batch = getSimpleOptionalProperty("batch", msgCtxt);
+      timer.mark(Phase.PROPERTIES);
+      if (batch != null) {
+        executeBatch(msgCtxt, out, batch, window, now, timer);
+        finishTimer(timer, msgCtxt, out, null);
+        out.finish();
+        return ExecutionResult.SUCCESS;
+      }
+
+      SigningCredential credential = getCredential(msgCtxt);
+      timer.mark(Phase.KEY);
+      RequestTemplate template = getRequestTemplate(msgCtxt, out, credential, now);
+      String resource = getResource(msgCtxt, out);
+      timer.mark(Phase.PROPERTIES);
+      String stringToSign = getStringToSign(out, now, template, resource);
+      timer.mark(Phase.CANONICALIZE);
+      byte[] signatureBytes =
+          signWithCache(
+              credential.keyDigest,
+              credential.getSigner(getSignerBackend(msgCtxt), now),
+              stringToSign,
+              getCacheableUntil(msgCtxt, window, template.expiration),
+              out);
+      timer.mark(Phase.SIGN);
+      SignedUrl signedUrl = SignedUrl.v4(resource, template.canonicalQueryString, signatureBytes);
+      if (out.wants(Level.STANDARD)) {
+        out.set(Level.STANDARD, "signature", signedUrl.getEncodedSignature());
+      }
+      out.set(Level.MINIMAL, "signedurl", signedUrl.getUrl());
+      timer.mark(Phase.ASSEMBLE);
+      finishTimer(timer, msgCtxt, out, null);
+      out.finish();
       return ExecutionResult.SUCCESS;
     } catch (IllegalStateException exc1) {
       setExceptionVariables(exc1, msgCtxt);
+      finishTimer(timer, msgCtxt, null, exc1);
       return ExecutionResult.ABORT;
     } catch (Exception e) {
       // if (getDebug()) {
@@ -241,6 +449,7 @@ public class V4SignedUrlCallout extends SigningCalloutBase implements Execution
       // }
       setExceptionVariables(e, msgCtxt);
       msgCtxt.setVariable(varName("stacktrace"), exceptionStackTrace(e));
+      finishTimer(timer, msgCtxt, null, e);
       return ExecutionResult.ABORT;
     }
   }
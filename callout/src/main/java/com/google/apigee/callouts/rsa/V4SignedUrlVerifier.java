@@ -0,0 +1,143 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.callouts.rsa;
+
+import com.apigee.flow.execution.IOIntensive;
+import com.apigee.flow.message.MessageContext;
+import com.google.apigee.callouts.rsa.CalloutOutput.Level;
+import com.google.apigee.metrics.PhaseTimer;
+import com.google.apigee.metrics.SigningMetrics.Phase;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import org.bouncycastle.util.encoders.Hex;
+
+/*
+ * Verifies a V4 signed URL, signed with GOOG4-RSA-SHA256. The canonical
+ * request is rebuilt just as V4SignedUrlCallout builds it: the host comes
+ * from the URL, any other signed headers from the addl-headers property,
+ * and the verb and payload from the verb (default GET) and payload
+ * properties.
+ */
+@IOIntensive
+public class V4SignedUrlVerifier extends SignedUrlVerifierBase {
+  private static final DateTimeFormatter timestampParser =
+      DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+  private static final String SCOPE_SUFFIX = "/storage/goog4_request";
+  private static final long MAX_EXPIRES_SECONDS = 604800;
+
+  public V4SignedUrlVerifier(Map properties) {
+    this(properties, SigningClock.SYSTEM);
+  }
+
+  public V4SignedUrlVerifier(Map properties, SigningClock clock) {
+    super(properties, clock);
+  }
+
+  private static long parseTimestamp(String timestamp) {
+    try {
+      return LocalDateTime.parse(timestamp, timestampParser).toEpochSecond(ZoneOffset.UTC);
+    } catch (DateTimeParseException e) {
+      throw new IllegalStateException("the X-Goog-Date parameter is invalid");
+    }
+  }
+
+  private static long parseExpires(String expires) {
+    try {
+      long seconds = Long.parseLong(expires);
+      if (seconds > 0 && seconds <= MAX_EXPIRES_SECONDS) return seconds;
+    } catch (NumberFormatException e) {
+      // fall through
+    }
+    throw new IllegalStateException("the X-Goog-Expires parameter is invalid");
+  }
+
+  private static byte[] decodeSignature(String signature) {
+    if (signature.length() % 2 != 0 || !signature.matches("[0-9a-fA-F]+"))
+      throw new IllegalStateException("the X-Goog-Signature parameter is invalid");
+    return Hex.decode(signature);
+  }
+
+  private V4SignedUrlCallout.CanonicalHeaders getCanonicalHeaders(
+      final MessageContext msgCtxt, final String host) throws Exception {
+    String additionalHeaders = getSimpleOptionalProperty("addl-headers", msgCtxt);
+    Map<String, String> headers =
+        (additionalHeaders != null)
+            ? V4SignedUrlCallout.parseAdditionalHeaders(additionalHeaders)
+            : Collections.<String, String>emptyMap();
+    Map<String, String> withHost = new TreeMap<String, String>(headers);
+    withHost.put("host", host);
+    return V4SignedUrlCallout.canonicalizeHeaders(withHost);
+  }
+
+  protected void verify(
+      final MessageContext msgCtxt,
+      final CalloutOutput out,
+      final ParsedUrl url,
+      final SigningClock.Tick now,
+      final PhaseTimer timer)
+      throws Exception {
+    String algorithm = url.getRequiredParam("X-Goog-Algorithm");
+    if (!algorithm.equals(SigningCredential.RSA_ALGORITHM))
+      throw new IllegalStateException(
+          "the url was not signed with " + SigningCredential.RSA_ALGORITHM);
+    String credential = url.getRequiredParam("X-Goog-Credential");
+    String timestamp = url.getRequiredParam("X-Goog-Date");
+    long issued = parseTimestamp(timestamp);
+    long expiration = issued + parseExpires(url.getRequiredParam("X-Goog-Expires"));
+    int slash = credential.indexOf('/');
+    String credentialScope = (slash > 0) ? credential.substring(slash + 1) : "";
+    if (!credentialScope.startsWith(timestamp.substring(0, 8) + "/")
+        || !credentialScope.endsWith(SCOPE_SUFFIX))
+      throw new IllegalStateException("the X-Goog-Credential parameter is invalid");
+    String clientEmail = credential.substring(0, slash);
+    out.set(Level.MINIMAL, "client_email", clientEmail);
+    out.set(Level.STANDARD, "expiration", Long.toString(expiration));
+    checkIssued(issued, now);
+    checkExpiry(expiration, now);
+
+    byte[] signature = decodeSignature(url.getRequiredParam("X-Goog-Signature"));
+    Map<String, String> query = new TreeMap<String, String>(url.query);
+    query.remove("X-Goog-Signature");
+    V4SignedUrlCallout.CanonicalHeaders canonicalHeaders = getCanonicalHeaders(msgCtxt, url.host);
+    if (!canonicalHeaders.signedHeaders.equals(url.getRequiredParam("X-Goog-SignedHeaders")))
+      throw new IllegalStateException("the signed headers do not match X-Goog-SignedHeaders");
+    timer.mark(Phase.PROPERTIES);
+
+    V4SignedUrlCallout.RequestTemplate template = new V4SignedUrlCallout.RequestTemplate();
+    template.algorithm = algorithm;
+    template.verb = getSimpleOptionalProperty("verb", msgCtxt);
+    if (template.verb == null) template.verb = "GET";
+    template.canonicalQueryString = V4SignedUrlCallout.queryToString(query);
+    template.canonicalHeadersString = canonicalHeaders.canonicalHeadersString;
+    template.signedHeaders = canonicalHeaders.signedHeaders;
+    template.payload = getSimpleOptionalProperty("payload", msgCtxt);
+    String stringToSign =
+        V4SignedUrlCallout.stringToSign(
+            algorithm, timestamp, credentialScope, template.hashedCanonicalRequest(url.resource));
+    out.set(Level.DEBUG, "string_to_sign", stringToSign);
+    timer.mark(Phase.CANONICALIZE);
+
+    VerificationKeys keys = getVerificationKeys(msgCtxt, clientEmail);
+    timer.mark(Phase.KEY);
+    if (!keys.verify(stringToSign, signature))
+      throw new IllegalStateException("the signature is invalid");
+    timer.mark(Phase.SIGN);
+  }
+}
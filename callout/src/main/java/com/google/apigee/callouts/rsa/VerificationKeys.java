@@ -0,0 +1,127 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.callouts.rsa;
+
+import com.google.apigee.cache.ExpiringCache;
+import com.google.apigee.json.JavaxJson;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.openssl.PEMParser;
+import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+
+/*
+ * The public keys that may have signed a URL, decoded once and cached. The
+ * material is either PEM text holding certificates or public keys, or a JSON
+ * object that maps key ids to PEM certificates, as Google publishes them for a
+ * service account at
+ * https://www.googleapis.com/service_accounts/v1/metadata/x509/EMAIL
+ */
+final class VerificationKeys {
+  private static final int CACHE_MAX_ENTRIES = 256;
+  private static final long CACHE_TTL_MILLIS = 60L * 60 * 1000;
+  private static final ExpiringCache<String, VerificationKeys> cache =
+      new ExpiringCache<String, VerificationKeys>(CACHE_MAX_ENTRIES, CACHE_TTL_MILLIS);
+
+  private static final ThreadLocal<Signature> verifiers =
+      ThreadLocal.withInitial(
+          () -> {
+            try {
+              return Signature.getInstance("SHA256withRSA");
+            } catch (NoSuchAlgorithmException e) {
+              throw new IllegalStateException(e);
+            }
+          });
+
+  private final List<PublicKey> keys;
+
+  private VerificationKeys(List<PublicKey> keys) {
+    this.keys = Collections.unmodifiableList(keys);
+  }
+
+  static VerificationKeys of(PublicKey key) {
+    return new VerificationKeys(Collections.singletonList(key));
+  }
+
+  // The cache key is the client email and a digest of the material.
+  static VerificationKeys forMaterial(String clientEmail, String material) throws Exception {
+    return cache.get(
+        clientEmail + "/" + SigningCalloutBase.sha256Hex(material), k -> parse(material));
+  }
+
+  @SuppressWarnings("unchecked")
+  static VerificationKeys parse(String material) throws Exception {
+    List<PublicKey> keys = new ArrayList<PublicKey>();
+    String trimmed = material.trim();
+    if (trimmed.startsWith("{")) {
+      Map<String, Object> byKeyId;
+      try {
+        byKeyId = JavaxJson.fromJson(trimmed, Map.class);
+      } catch (RuntimeException e) {
+        throw new IllegalStateException("the public-keys value is invalid");
+      }
+      for (Object pem : byKeyId.values()) {
+        if (!(pem instanceof String))
+          throw new IllegalStateException("the public-keys value is invalid");
+        readPem((String) pem, keys);
+      }
+    } else {
+      readPem(trimmed, keys);
+    }
+    if (keys.isEmpty()) throw new IllegalStateException("the public-keys value holds no keys");
+    return new VerificationKeys(keys);
+  }
+
+  private static void readPem(String pem, List<PublicKey> keys) throws Exception {
+    JcaPEMKeyConverter converter = new JcaPEMKeyConverter();
+    try (PEMParser parser = new PEMParser(new StringReader(pem))) {
+      Object o;
+      while ((o = parser.readObject()) != null) {
+        if (o instanceof X509CertificateHolder) {
+          keys.add(
+              converter.getPublicKey(((X509CertificateHolder) o).getSubjectPublicKeyInfo()));
+        } else if (o instanceof SubjectPublicKeyInfo) {
+          keys.add(converter.getPublicKey((SubjectPublicKeyInfo) o));
+        } else {
+          throw new IllegalStateException("the public-keys value holds an unsupported object");
+        }
+      }
+    }
+  }
+
+  int size() {
+    return keys.size();
+  }
+
+  // Whether any of the keys verifies the RSASSA-PKCS1-v1_5 SHA-256 signature.
+  boolean verify(String message, byte[] signature) throws Exception {
+    byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+    Signature verifier = verifiers.get();
+    for (PublicKey key : keys) {
+      verifier.initVerify(key);
+      verifier.update(messageBytes);
+      if (verifier.verify(signature)) return true;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,163 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.callouts.rsa;
+
+import com.google.apigee.encoding.PercentEncoder;
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+
+/*
+ * An optional warm-up, so that the first requests after a deployment or a
+ * restart do not pay for class loading, provider lookup, key decoding, and
+ * an unwarmed JIT. It runs once per distinct configuration, on a background
+ * daemon thread, started when a callout with the warmup property is
+ * constructed. It decodes the configured keys into the key cache, runs the
+ * signer backend calibration, and then canonicalizes and signs a number of
+ * dummy V4 requests. With no key
+ * configured, it signs with a throwaway key of the usual size. Like the
+ * signing path, it leaves the JVM's security providers as they are.
+ */
+final class Warmup {
+  static final int DEFAULT_ITERATIONS = 200;
+  private static final int THROWAWAY_KEY_BITS = 2048;
+  private static final ConcurrentHashMap<String, Warmup> warmups =
+      new ConcurrentHashMap<String, Warmup>();
+
+  interface KeyLoader {
+    SigningKey load() throws Exception;
+  }
+
+  private final List<KeyLoader> keyLoaders;
+  private final int iterations;
+  private final CountDownLatch done = new CountDownLatch(1);
+  private volatile long elapsedMillis = -1L;
+  private volatile Exception failure;
+
+  private Warmup(List<KeyLoader> keyLoaders, int iterations) {
+    this.keyLoaders = keyLoaders;
+    this.iterations = iterations;
+  }
+
+  // Starts the warm-up for this configuration, unless it has already started.
+  static Warmup start(String configuration, List<KeyLoader> keyLoaders, int iterations) {
+    return warmups.computeIfAbsent(
+        configuration,
+        k -> {
+          Warmup warmup = new Warmup(keyLoaders, iterations);
+          Thread thread = new Thread(warmup::run, "signed-url-warmup");
+          thread.setDaemon(true);
+          thread.start();
+          return warmup;
+        });
+  }
+
+  /*
+   * A warm-up that is already done, having failed, for a configuration that
+   * cannot be warmed up. The warm-up is only an optimization, so this does
+   * not stop the callout from being created.
+   */
+  static Warmup failed(Exception failure) {
+    Warmup warmup = new Warmup(Collections.<KeyLoader>emptyList(), 0);
+    warmup.failure = failure;
+    warmup.elapsedMillis = 0L;
+    warmup.done.countDown();
+    return warmup;
+  }
+
+  private void run() {
+    long start = System.nanoTime();
+    try {
+      KeyFactory.getInstance("RSA");
+      new JcaPEMKeyConverter().setProvider(SignerBackend.bouncyCastle);
+
+      Signer signer = null;
+      for (KeyLoader loader : keyLoaders) {
+        SigningKey key = loader.load();
+        key.getKeyPair();
+        if (signer == null) {
+          // calibrate here, so that no request waits for it
+          SignerBackend.fastestNow(key.getKeyPair().getPrivate());
+          signer = key.getSigner();
+        }
+      }
+      if (signer == null) {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(THROWAWAY_KEY_BITS);
+        PrivateKey privateKey = generator.generateKeyPair().getPrivate();
+        signer = SignerBackend.fastestNow(privateKey).create(privateKey);
+      }
+      signDummyRequests(signer);
+    } catch (Exception e) {
+      failure = e;
+    } finally {
+      elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      done.countDown();
+    }
+  }
+
+  private void signDummyRequests(Signer signer) throws Exception {
+    SigningClock.Tick now = SigningClock.SYSTEM.now();
+    V4SignedUrlCallout.CanonicalHeaders headers =
+        V4SignedUrlCallout.canonicalizeHeaders(Collections.<String, String>emptyMap());
+    Map<String, String> query = new TreeMap<String, String>();
+    query.put("X-Goog-Algorithm", SigningCredential.RSA_ALGORITHM);
+    query.put("X-Goog-Credential", "warmup@example.com/" + now.getCredentialScope());
+    query.put("X-Goog-Date", now.getTimestamp());
+    query.put("X-Goog-Expires", "600");
+    query.put("X-Goog-SignedHeaders", headers.signedHeaders);
+    V4SignedUrlCallout.RequestTemplate template = new V4SignedUrlCallout.RequestTemplate();
+    template.algorithm = SigningCredential.RSA_ALGORITHM;
+    template.verb = "GET";
+    template.canonicalQueryString = V4SignedUrlCallout.queryToString(query);
+    template.canonicalHeadersString = headers.canonicalHeadersString;
+    template.signedHeaders = headers.signedHeaders;
+    for (int i = 0; i < iterations; i++) {
+      String resource = "/warmup/" + PercentEncoder.PATH.encode("object " + i + ".txt");
+      String stringToSign =
+          V4SignedUrlCallout.stringToSign(
+              template.algorithm,
+              now.getTimestamp(),
+              now.getCredentialScope(),
+              template.hashedCanonicalRequest(resource));
+      SignedUrl.v4(resource, template.canonicalQueryString, signer.sign(stringToSign));
+    }
+  }
+
+  boolean isDone() {
+    return done.getCount() == 0;
+  }
+
+  boolean await(long timeoutMillis) throws InterruptedException {
+    return done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+  }
+
+  // -1 until the warm-up is done
+  long getElapsedMillis() {
+    return elapsedMillis;
+  }
+
+  Exception getFailure() {
+    return failure;
+  }
+}
@@ -0,0 +1,131 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.encoding;
+
+/*
+ * Lookup-table encoders for signature bytes, writing directly into a
+ * caller-supplied char[] that has been sized with the matching length method.
+ * Each encode method returns the offset following the last char written.
+ */
+public final class BinaryEncoder {
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+  private static final char[] BASE64 =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+  // the query-encoded form of each base64 char; '+', '/' and '=' need escaping
+  private static final String[] BASE64_QUERY = new String[65];
+
+  static {
+    for (int i = 0; i < 64; i++) {
+      BASE64_QUERY[i] = String.valueOf(BASE64[i]);
+    }
+    BASE64_QUERY[62] = "%2B";
+    BASE64_QUERY[63] = "%2F";
+    BASE64_QUERY[64] = "%3D";
+  }
+
+  private BinaryEncoder() {}
+
+  public static int hexLength(byte[] data) {
+    return data.length * 2;
+  }
+
+  // lowercase hex, as GCS expects for V4 signatures
+  public static int encodeHex(byte[] data, char[] out, int offset) {
+    int p = offset;
+    for (byte b : data) {
+      out[p++] = HEX[(b >> 4) & 0xF];
+      out[p++] = HEX[b & 0xF];
+    }
+    return p;
+  }
+
+  public static String toHex(byte[] data) {
+    char[] out = new char[hexLength(data)];
+    encodeHex(data, out, 0);
+    return new String(out);
+  }
+
+  /*
+   * The length of the standard, padded base64 encoding of data, after
+   * percent-encoding it for use as a query parameter value.
+   */
+  public static int base64QueryLength(byte[] data) {
+    int length = 0;
+    int n = data.length;
+    int i = 0;
+    for (; i + 3 <= n; i += 3) {
+      int bits = ((data[i] & 0xFF) << 16) | ((data[i + 1] & 0xFF) << 8) | (data[i + 2] & 0xFF);
+      length += sextetLength(bits >> 18) + sextetLength(bits >> 12);
+      length += sextetLength(bits >> 6) + sextetLength(bits);
+    }
+    int remaining = n - i;
+    if (remaining == 1) {
+      int bits = (data[i] & 0xFF) << 16;
+      length += sextetLength(bits >> 18) + sextetLength(bits >> 12) + 6;
+    } else if (remaining == 2) {
+      int bits = ((data[i] & 0xFF) << 16) | ((data[i + 1] & 0xFF) << 8);
+      length += sextetLength(bits >> 18) + sextetLength(bits >> 12) + sextetLength(bits >> 6) + 3;
+    }
+    return length;
+  }
+
+  // standard, padded base64, percent-encoded for use as a query parameter value
+  public static int encodeBase64Query(byte[] data, char[] out, int offset) {
+    int p = offset;
+    int n = data.length;
+    int i = 0;
+    for (; i + 3 <= n; i += 3) {
+      int bits = ((data[i] & 0xFF) << 16) | ((data[i + 1] & 0xFF) << 8) | (data[i + 2] & 0xFF);
+      p = putSextet(out, p, bits >> 18);
+      p = putSextet(out, p, bits >> 12);
+      p = putSextet(out, p, bits >> 6);
+      p = putSextet(out, p, bits);
+    }
+    int remaining = n - i;
+    if (remaining == 1) {
+      int bits = (data[i] & 0xFF) << 16;
+      p = putSextet(out, p, bits >> 18);
+      p = putSextet(out, p, bits >> 12);
+      p = put(out, p, BASE64_QUERY[64]);
+      p = put(out, p, BASE64_QUERY[64]);
+    } else if (remaining == 2) {
+      int bits = ((data[i] & 0xFF) << 16) | ((data[i + 1] & 0xFF) << 8);
+      p = putSextet(out, p, bits >> 18);
+      p = putSextet(out, p, bits >> 12);
+      p = putSextet(out, p, bits >> 6);
+      p = put(out, p, BASE64_QUERY[64]);
+    }
+    return p;
+  }
+
+  private static int sextetLength(int bits) {
+    return BASE64_QUERY[bits & 0x3F].length();
+  }
+
+  private static int putSextet(char[] out, int p, int bits) {
+    int index = bits & 0x3F;
+    if (index < 62) {
+      out[p] = BASE64[index];
+      return p + 1;
+    }
+    return put(out, p, BASE64_QUERY[index]);
+  }
+
+  private static int put(char[] out, int p, String s) {
+    s.getChars(0, s.length(), out, p);
+    return p + s.length();
+  }
+}
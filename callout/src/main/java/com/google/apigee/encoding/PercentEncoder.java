@@ -0,0 +1,131 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.encoding;
+
+/*
+ * RFC 3986 percent-encoding, driven by a lookup table. Characters outside the
+ * safe set are encoded as UTF-8, one %XX per byte, with uppercase hex digits.
+ * QUERY leaves only the unreserved characters (A-Z a-z 0-9 - . _ ~) as is;
+ * PATH also leaves the slash, for encoding object names within a resource path.
+ * Unpaired surrogates are encoded as a question mark.
+ */
+public final class PercentEncoder {
+  public static final PercentEncoder QUERY = new PercentEncoder("");
+  public static final PercentEncoder PATH = new PercentEncoder("/");
+
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+  private final boolean[] safe = new boolean[128];
+
+  private PercentEncoder(String extraSafeCharacters) {
+    for (char c = 'A'; c <= 'Z'; c++) safe[c] = true;
+    for (char c = 'a'; c <= 'z'; c++) safe[c] = true;
+    for (char c = '0'; c <= '9'; c++) safe[c] = true;
+    safe['-'] = true;
+    safe['.'] = true;
+    safe['_'] = true;
+    safe['~'] = true;
+    for (char c : extraSafeCharacters.toCharArray()) safe[c] = true;
+  }
+
+  public boolean needsEncoding(CharSequence s) {
+    for (int i = 0, n = s.length(); i < n; i++) {
+      char c = s.charAt(i);
+      if (c >= 128 || !safe[c]) return true;
+    }
+    return false;
+  }
+
+  // The exact number of chars that encode() will write for s.
+  public int encodedLength(CharSequence s) {
+    int length = 0;
+    for (int i = 0, n = s.length(); i < n; i++) {
+      char c = s.charAt(i);
+      if (c < 128) {
+        length += safe[c] ? 1 : 3;
+      } else if (c < 0x800) {
+        length += 6;
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < n
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        length += 12;
+        i++;
+      } else if (Character.isSurrogate(c)) {
+        length += 3;
+      } else {
+        length += 9;
+      }
+    }
+    return length;
+  }
+
+  public String encode(String s) {
+    if (!needsEncoding(s)) return s;
+    char[] out = new char[encodedLength(s)];
+    encode(s, out, 0);
+    return new String(out);
+  }
+
+  // Through the char[] form, so that there is one encoding loop.
+  public StringBuilder encode(CharSequence s, StringBuilder out) {
+    char[] encoded = new char[encodedLength(s)];
+    return out.append(encoded, 0, encode(s, encoded, 0));
+  }
+
+  /*
+   * Writes the encoded form of s into out, starting at offset, and returns
+   * the offset following the last char written. The caller sizes the array
+   * with encodedLength().
+   */
+  public int encode(CharSequence s, char[] out, int offset) {
+    int p = offset;
+    for (int i = 0, n = s.length(); i < n; i++) {
+      char c = s.charAt(i);
+      if (c < 128 && safe[c]) {
+        out[p++] = c;
+        continue;
+      }
+      int cp = c;
+      if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+        cp = Character.toCodePoint(c, s.charAt(++i));
+      } else if (Character.isSurrogate(c)) {
+        cp = '?';
+      }
+      if (cp < 0x80) {
+        p = putByte(out, p, cp);
+      } else if (cp < 0x800) {
+        p = putByte(out, p, 0xC0 | (cp >> 6));
+        p = putByte(out, p, 0x80 | (cp & 0x3F));
+      } else if (cp < 0x10000) {
+        p = putByte(out, p, 0xE0 | (cp >> 12));
+        p = putByte(out, p, 0x80 | ((cp >> 6) & 0x3F));
+        p = putByte(out, p, 0x80 | (cp & 0x3F));
+      } else {
+        p = putByte(out, p, 0xF0 | (cp >> 18));
+        p = putByte(out, p, 0x80 | ((cp >> 12) & 0x3F));
+        p = putByte(out, p, 0x80 | ((cp >> 6) & 0x3F));
+        p = putByte(out, p, 0x80 | (cp & 0x3F));
+      }
+    }
+    return p;
+  }
+
+  private static int putByte(char[] out, int p, int b) {
+    out[p] = '%';
+    out[p + 1] = HEX[(b >> 4) & 0xF];
+    out[p + 2] = HEX[b & 0xF];
+    return p + 3;
+  }
+}
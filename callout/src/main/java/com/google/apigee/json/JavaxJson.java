@@ -4,187 +4,234 @@ package com.google.apigee.json;
 
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
+import java.io.Reader;
 import java.io.StringReader;
 import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import javax.json.Json;
-import javax.json.JsonArray;
-import javax.json.JsonNumber;
-import javax.json.JsonObject;
-import javax.json.JsonString;
-import javax.json.JsonValue;
-import javax.json.JsonValue.ValueType;
-
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import javax.json.stream.JsonParserFactory;
+import javax.json.stream.JsonParsingException;
+
+/*
+ * Decodes JSON into maps, lists, arrays and beans, directly from the events
+ * of a streaming parser; no intermediate JsonValue tree is built. The
+ * reflective metadata for each bean class - its constructor, and the setter
+ * and generic parameter type of each property - is computed once and cached.
+ */
 public class JavaxJson {
-  @SuppressWarnings("unchecked")
+  private static final JsonParserFactory parserFactory = Json.createParserFactory(null);
+
+  private static final ClassValue<BeanMetadata> beanMetadata =
+      new ClassValue<BeanMetadata>() {
+        @Override
+        protected BeanMetadata computeValue(Class<?> type) {
+          return new BeanMetadata(type);
+        }
+      };
+
+  private static final class BeanProperty {
+    final Method setter;
+    final Type type;
+
+    BeanProperty(Method setter) {
+      this.setter = setter;
+      this.type = setter.getGenericParameterTypes()[0];
+    }
+  }
+
+  private static final class BeanMetadata {
+    final Constructor<?> constructor;
+    final Map<String, BeanProperty> properties;
+    final Exception failure;
+
+    BeanMetadata(Class<?> type) {
+      Constructor<?> ctor = null;
+      Map<String, BeanProperty> props = new HashMap<String, BeanProperty>();
+      Exception problem = null;
+      try {
+        ctor = type.getDeclaredConstructor();
+        ctor.setAccessible(true);
+        for (PropertyDescriptor property :
+            Introspector.getBeanInfo(type).getPropertyDescriptors()) {
+          if (property.getWriteMethod() != null) {
+            props.put(property.getName(), new BeanProperty(property.getWriteMethod()));
+          }
+        }
+      } catch (Exception e) {
+        problem = e;
+      }
+      this.constructor = ctor;
+      this.properties = Collections.unmodifiableMap(props);
+      this.failure = problem;
+    }
+  }
+
   public static <T> T fromJson(String json, Class<T> beanClass) {
-    JsonValue value = Json.createReader(new StringReader(json)).read();
-    return (T) decode(value, beanClass);
+    return fromJson(new StringReader(json), beanClass);
   }
 
-  private static Object decode(JsonValue jsonValue, Type targetType) {
-    if (jsonValue.getValueType() == ValueType.NULL) {
-      return null;
-    } else if (jsonValue.getValueType() == ValueType.TRUE
-        || jsonValue.getValueType() == ValueType.FALSE) {
-      return decodeBoolean(jsonValue, targetType);
-    } else if (jsonValue instanceof JsonNumber) {
-      return decodeNumber((JsonNumber) jsonValue, targetType);
-    } else if (jsonValue instanceof JsonString) {
-      return decodeString((JsonString) jsonValue, targetType);
-    } else if (jsonValue instanceof JsonArray) {
-      return decodeArray((JsonArray) jsonValue, targetType);
-    } else if (jsonValue instanceof JsonObject) {
-      return decodeObject((JsonObject) jsonValue, targetType);
-    } else {
-      throw new UnsupportedOperationException("Unsupported json value: " + jsonValue);
+  @SuppressWarnings("unchecked")
+  public static <T> T fromJson(Reader reader, Class<T> beanClass) {
+    try (JsonParser parser = parserFactory.createParser(reader)) {
+      if (!parser.hasNext()) {
+        throw new JsonParsingException("no JSON value", parser.getLocation());
+      }
+      Object result = decode(parser, parser.next(), beanClass);
+      if (parser.hasNext()) {
+        throw new JsonParsingException(
+            "unexpected content after the value", parser.getLocation());
+      }
+      return (T) result;
     }
   }
 
-  private static Object decode(JsonValue jsonValue) {
-    if (jsonValue.getValueType() == ValueType.NULL) {
-      return null;
-    } else if (jsonValue.getValueType() == ValueType.TRUE
-        || jsonValue.getValueType() == ValueType.FALSE) {
-      return decodeBoolean(jsonValue, java.lang.Boolean.class);
-    } else if (jsonValue instanceof JsonNumber) {
-      return decodeNumber((JsonNumber) jsonValue, java.lang.Double.class);
-    } else if (jsonValue instanceof JsonString) {
-      return decodeString((JsonString) jsonValue, java.lang.String.class);
-    } else if (jsonValue instanceof JsonArray) {
-      return decodeArray((JsonArray) jsonValue, java.util.ArrayList.class);
-    } else if (jsonValue instanceof JsonObject) {
-      return decodeObject((JsonObject) jsonValue, java.lang.Object.class);
-    } else {
-      throw new UnsupportedOperationException("Unsupported json value: " + jsonValue);
+  private static Class<?> rawClass(Type type) {
+    return (Class<?>)
+        ((type instanceof ParameterizedType) ? ((ParameterizedType) type).getRawType() : type);
+  }
+
+  private static Type typeArgument(Type type, int index) {
+    return (type instanceof ParameterizedType)
+        ? ((ParameterizedType) type).getActualTypeArguments()[index]
+        : null;
+  }
+
+  // A null targetType decodes to the natural Java type of each value.
+  private static Object decode(JsonParser parser, Event event, Type targetType) {
+    switch (event) {
+      case VALUE_NULL:
+        return null;
+      case VALUE_TRUE:
+      case VALUE_FALSE:
+        return decodeBoolean(event == Event.VALUE_TRUE, targetType);
+      case VALUE_NUMBER:
+        return decodeNumber(parser, targetType);
+      case VALUE_STRING:
+        return decodeString(parser.getString(), targetType);
+      case START_ARRAY:
+        return decodeArray(parser, targetType);
+      case START_OBJECT:
+        return decodeObject(parser, targetType);
+      default:
+        throw new UnsupportedOperationException("Unsupported json event: " + event);
     }
   }
 
-  private static Object decodeBoolean(JsonValue jsonValue, Type targetType) {
-    if (targetType == boolean.class || targetType == Boolean.class) {
-      return Boolean.valueOf(jsonValue.toString());
+  private static Object decodeBoolean(boolean value, Type targetType) {
+    if (targetType == null || targetType == boolean.class || targetType == Boolean.class) {
+      return Boolean.valueOf(value);
     } else {
       throw new UnsupportedOperationException("Unsupported boolean type: " + targetType);
     }
   }
 
-  private static Object decodeNumber(JsonNumber jsonNumber, Type targetType) {
+  private static Object decodeNumber(JsonParser parser, Type targetType) {
     if (targetType == int.class || targetType == Integer.class) {
-      return jsonNumber.intValue();
+      return parser.getInt();
     } else if (targetType == long.class || targetType == Long.class) {
-      return jsonNumber.longValue();
-    } else if (targetType == long.class || targetType == Double.class) {
-      return jsonNumber.doubleValue();
+      return parser.getLong();
+    } else if (targetType == null || targetType == double.class || targetType == Double.class) {
+      return parser.getBigDecimal().doubleValue();
     } else {
       throw new UnsupportedOperationException("Unsupported number type: " + targetType);
     }
   }
 
-  private static Object decodeString(JsonString jsonString, Type targetType) {
-    if (targetType == String.class) {
-      return jsonString.getString();
+  private static Object decodeString(String value, Type targetType) {
+    if (targetType == null || targetType == String.class) {
+      return value;
     } else if (targetType == Date.class) {
       try {
         return new SimpleDateFormat("MMM dd, yyyy H:mm:ss a", Locale.ENGLISH)
-            .parse(jsonString.getString()); // This is default Gson format. Alter if necessary.
+            .parse(value); // This is default Gson format. Alter if necessary.
       } catch (ParseException e) {
-        throw new UnsupportedOperationException(
-            "Unsupported date format: " + jsonString.getString());
+        throw new UnsupportedOperationException("Unsupported date format: " + value);
       }
     } else {
       throw new UnsupportedOperationException("Unsupported string type: " + targetType);
     }
   }
 
-  private static Object decodeArray(JsonArray jsonArray, Type targetType) {
-    boolean isBean = targetType instanceof ParameterizedType;
-    Class<?> targetClass =
-        (Class<?>)
-             ((isBean)
-                ? ((ParameterizedType) targetType).getRawType()
-                : targetType);
+  private static Object decodeArray(JsonParser parser, Type targetType) {
+    Class<?> targetClass = (targetType == null) ? ArrayList.class : rawClass(targetType);
 
     if (List.class.isAssignableFrom(targetClass)) {
+      Type elementType = (targetType == null) ? null : typeArgument(targetType, 0);
       List<Object> list = new ArrayList<>();
-      if (isBean) {
-        Class<?> elementClass =
-          (Class<?>) ((ParameterizedType) targetType).getActualTypeArguments()[0];
-
-        for (JsonValue item : jsonArray) {
-          list.add(decode(item, elementClass));
-        }
+      Event event;
+      while ((event = parser.next()) != Event.END_ARRAY) {
+        list.add(decode(parser, event, elementType));
       }
-      else {
-        for (JsonValue item : jsonArray) {
-          list.add(decode(item));
-        }
-      }
-
       return list;
     } else if (targetClass.isArray()) {
       Class<?> elementClass = targetClass.getComponentType();
-      Object array = Array.newInstance(elementClass, jsonArray.size());
-
-      for (int i = 0; i < jsonArray.size(); i++) {
-        Array.set(array, i, decode(jsonArray.get(i), elementClass));
+      List<Object> items = new ArrayList<>();
+      Event event;
+      while ((event = parser.next()) != Event.END_ARRAY) {
+        items.add(decode(parser, event, elementClass));
+      }
+      Object array = Array.newInstance(elementClass, items.size());
+      for (int i = 0; i < items.size(); i++) {
+        Array.set(array, i, items.get(i));
       }
-
       return array;
     } else {
       throw new UnsupportedOperationException("Unsupported array type: " + targetClass);
     }
   }
 
-  private static Object decodeObject(JsonObject object, Type targetType) {
-    boolean isBean = targetType instanceof ParameterizedType;
-    //System.out.printf("\n** is ParameterizedType: %s\n", isBean);
-
-    Class<?> targetClass =
-        (Class<?>) ((isBean) ? ((ParameterizedType) targetType).getRawType() : targetType);
+  private static Object decodeObject(JsonParser parser, Type targetType) {
+    Class<?> targetClass = (targetType == null) ? Map.class : rawClass(targetType);
 
     if (Map.class.isAssignableFrom(targetClass)) {
+      Type valueType = (targetType == null) ? null : typeArgument(targetType, 1);
       Map<String, Object> map = new LinkedHashMap<>();
-      if (isBean) {
-        Class<?> valueClass =
-            (Class<?>) ((ParameterizedType) targetType).getActualTypeArguments()[1];
-        for (Map.Entry<String, JsonValue> entry : object.entrySet()) {
-          map.put(entry.getKey(), decode(entry.getValue(), valueClass));
-        }
-      } else {
-        for (Map.Entry<String, JsonValue> entry : object.entrySet()) {
-          map.put(entry.getKey(), decode(entry.getValue()));
-        }
+      while (parser.next() != Event.END_OBJECT) {
+        String name = parser.getString();
+        map.put(name, decode(parser, parser.next(), valueType));
       }
       return map;
-    } else
-      try {
-        Object bean = targetClass.newInstance();
+    }
 
-        for (PropertyDescriptor property :
-            Introspector.getBeanInfo(targetClass).getPropertyDescriptors()) {
-          if (property.getWriteMethod() != null && object.containsKey(property.getName())) {
-            property
-                .getWriteMethod()
-                .invoke(
-                    bean,
-                    decode(
-                        object.get(property.getName()),
-                        property.getWriteMethod().getGenericParameterTypes()[0]));
-          }
+    BeanMetadata metadata = beanMetadata.get(targetClass);
+    if (metadata.failure != null) {
+      throw new UnsupportedOperationException(
+          "Unsupported object type: " + targetClass, metadata.failure);
+    }
+    try {
+      Object bean = metadata.constructor.newInstance();
+      while (parser.next() != Event.END_OBJECT) {
+        String name = parser.getString();
+        Event event = parser.next();
+        BeanProperty property = metadata.properties.get(name);
+        if (property != null) {
+          property.setter.invoke(bean, decode(parser, event, property.type));
+        } else if (event == Event.START_OBJECT) {
+          parser.skipObject();
+        } else if (event == Event.START_ARRAY) {
+          parser.skipArray();
         }
-
-        return bean;
-      } catch (Exception e) {
-        throw new UnsupportedOperationException("Unsupported object type: " + targetClass, e);
       }
+      return bean;
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new UnsupportedOperationException("Unsupported object type: " + targetClass, e);
+    }
   }
 }
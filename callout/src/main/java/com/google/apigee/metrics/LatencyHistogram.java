@@ -0,0 +1,87 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * A lock-free histogram of durations in nanoseconds. Values below 8 have
+ * their own buckets; above that, each power of two is split into 8 buckets,
+ * so a reported percentile is within 12.5% of the true value. Recording is
+ * one atomic increment plus two adder updates; reading takes a snapshot
+ * that may be slightly inconsistent while other threads record.
+ */
+public final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKETS) return (int) Math.max(value, 0L);
+    int magnitude = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  // the largest value that falls in the bucket
+  static long bucketUpperBound(int index) {
+    if (index < SUB_BUCKETS) return index;
+    int magnitude = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    int subBucket = index % SUB_BUCKETS;
+    int shift = magnitude - SUB_BUCKET_BITS;
+    return ((long) (SUB_BUCKETS + subBucket) << shift) + (1L << shift) - 1;
+  }
+
+  public void record(long nanos) {
+    counts.incrementAndGet(bucketIndex(nanos));
+    count.increment();
+    sum.add(nanos);
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getSum() {
+    return sum.sum();
+  }
+
+  /*
+   * The value at the given quantile, between 0 and 1, as the upper bound of
+   * the bucket that holds it. Zero when nothing has been recorded.
+   */
+  public long getValueAtQuantile(double quantile) {
+    long[] snapshot = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) return 0L;
+    long rank = Math.max(1L, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) return bucketUpperBound(i);
+    }
+    return bucketUpperBound(BUCKETS - 1);
+  }
+}
@@ -0,0 +1,72 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.metrics;
+
+import com.google.apigee.metrics.SigningMetrics.Phase;
+
+/*
+ * Times the phases of one execution. Each call to mark() charges the time
+ * since the previous mark to the named phase; a phase may be charged more
+ * than once. record() adds the phase times and the total to the shared
+ * histograms. The disabled timer does nothing and reads no clock.
+ * Not thread safe; one per execution.
+ */
+public class PhaseTimer {
+  public static final PhaseTimer DISABLED = new PhaseTimer(null);
+
+  private final SigningMetrics metrics;
+  private final long[] elapsed = new long[Phase.values().length];
+  private final long start;
+  private long last;
+
+  private PhaseTimer(SigningMetrics metrics) {
+    this.metrics = metrics;
+    this.start = (metrics != null) ? System.nanoTime() : 0L;
+    this.last = start;
+  }
+
+  public static PhaseTimer start(SigningMetrics metrics) {
+    return new PhaseTimer(metrics);
+  }
+
+  public boolean isEnabled() {
+    return metrics != null;
+  }
+
+  public void mark(Phase phase) {
+    if (metrics == null) return;
+    long now = System.nanoTime();
+    elapsed[phase.ordinal()] += now - last;
+    last = now;
+  }
+
+  public long getElapsedNanos(Phase phase) {
+    return (phase == Phase.TOTAL) ? last - start : elapsed[phase.ordinal()];
+  }
+
+  public void record() {
+    if (metrics == null) return;
+    for (Phase phase : Phase.values()) {
+      long nanos = getElapsedNanos(phase);
+      if (nanos > 0 || phase == Phase.TOTAL) metrics.getHistogram(phase).record(nanos);
+    }
+  }
+
+  public void recordError(Throwable t) {
+    if (metrics == null) return;
+    metrics.recordError(t);
+  }
+}
@@ -0,0 +1,134 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * In-JVM timing metrics for the signing callouts: a latency histogram for
+ * each phase of each callout class, and a count of errors by exception type.
+ * The metrics live as long as the classloader, which in Apigee is as long as
+ * the deployed proxy revision.
+ */
+public final class SigningMetrics {
+  public enum Phase {
+    KEY,
+    PROPERTIES,
+    CANONICALIZE,
+    SIGN,
+    ASSEMBLE,
+    TOTAL;
+
+    private final String label = name().toLowerCase();
+
+    public String getLabel() {
+      return label;
+    }
+  }
+
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+  private static final ConcurrentMap<String, SigningMetrics> registry =
+      new ConcurrentHashMap<String, SigningMetrics>();
+
+  private final String callout;
+  private final Map<Phase, LatencyHistogram> phases =
+      new EnumMap<Phase, LatencyHistogram>(Phase.class);
+  private final ConcurrentMap<String, LongAdder> errors =
+      new ConcurrentHashMap<String, LongAdder>();
+
+  private SigningMetrics(String callout) {
+    this.callout = callout;
+    for (Phase phase : Phase.values()) {
+      phases.put(phase, new LatencyHistogram());
+    }
+  }
+
+  public static SigningMetrics forCallout(String callout) {
+    return registry.computeIfAbsent(callout, SigningMetrics::new);
+  }
+
+  public LatencyHistogram getHistogram(Phase phase) {
+    return phases.get(phase);
+  }
+
+  public void recordError(Throwable t) {
+    errors.computeIfAbsent(t.getClass().getSimpleName(), k -> new LongAdder()).increment();
+  }
+
+  public long getErrorCount(String exceptionType) {
+    LongAdder adder = errors.get(exceptionType);
+    return (adder == null) ? 0L : adder.sum();
+  }
+
+  private static String seconds(long nanos) {
+    return Double.toString(nanos / 1e9);
+  }
+
+  // A snapshot of every callout's metrics, in the Prometheus text format.
+  public static String toPrometheusText() {
+    Map<String, SigningMetrics> sorted = new TreeMap<String, SigningMetrics>(registry);
+    StringBuilder sb = new StringBuilder(4096);
+    sb.append("# HELP signedurl_phase_seconds Time spent in each phase of the signing callouts.\n");
+    sb.append("# TYPE signedurl_phase_seconds summary\n");
+    for (SigningMetrics metrics : sorted.values()) {
+      for (Phase phase : Phase.values()) {
+        LatencyHistogram histogram = metrics.phases.get(phase);
+        long count = histogram.getCount();
+        if (count == 0) continue;
+        String labels = "callout=\"" + metrics.callout + "\",phase=\"" + phase.getLabel() + "\"";
+        for (double quantile : QUANTILES) {
+          sb.append("signedurl_phase_seconds{")
+              .append(labels)
+              .append(",quantile=\"")
+              .append(quantile)
+              .append("\"} ")
+              .append(seconds(histogram.getValueAtQuantile(quantile)))
+              .append('\n');
+        }
+        sb.append("signedurl_phase_seconds_sum{")
+            .append(labels)
+            .append("} ")
+            .append(seconds(histogram.getSum()))
+            .append('\n');
+        sb.append("signedurl_phase_seconds_count{")
+            .append(labels)
+            .append("} ")
+            .append(count)
+            .append('\n');
+      }
+    }
+    sb.append("# HELP signedurl_errors_total Errors in the signing callouts, by exception type.\n");
+    sb.append("# TYPE signedurl_errors_total counter\n");
+    for (SigningMetrics metrics : sorted.values()) {
+      Map<String, LongAdder> errors = new TreeMap<String, LongAdder>(metrics.errors);
+      for (Map.Entry<String, LongAdder> entry : errors.entrySet()) {
+        sb.append("signedurl_errors_total{callout=\"")
+            .append(metrics.callout)
+            .append("\",type=\"")
+            .append(entry.getKey())
+            .append("\"} ")
+            .append(entry.getValue().sum())
+            .append('\n');
+      }
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,85 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.sidecar;
+
+import com.apigee.flow.message.Message;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * A Message held in memory: the content as bytes, headers with
+ * case-insensitive names, and message variables.
+ */
+public final class InMemoryMessage implements Message {
+  private byte[] content;
+  private final Map<String, Object> headers =
+      new TreeMap<String, Object>(String.CASE_INSENSITIVE_ORDER);
+  private final Map<String, Object> variables = new HashMap<String, Object>();
+
+  public InMemoryMessage(byte[] content) {
+    this.content = (content != null) ? content : new byte[0];
+  }
+
+  public String getContent() {
+    return new String(content, StandardCharsets.UTF_8);
+  }
+
+  public InputStream getContentAsStream() {
+    return new ByteArrayInputStream(content);
+  }
+
+  public void setContent(String content) {
+    this.content = content.getBytes(StandardCharsets.UTF_8);
+  }
+
+  public void setContent(InputStream stream) {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = stream.read(buffer)) != -1) out.write(buffer, 0, n);
+      this.content = out.toByteArray();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public String getHeader(String name) {
+    Object value = headers.get(name);
+    return (value != null) ? value.toString() : null;
+  }
+
+  public boolean setHeader(String name, Object value) {
+    headers.put(name, value);
+    return true;
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> T getVariable(String name) {
+    return (T) variables.get(name);
+  }
+
+  public boolean setVariable(String name, Object value) {
+    variables.put(name, value);
+    return true;
+  }
+}
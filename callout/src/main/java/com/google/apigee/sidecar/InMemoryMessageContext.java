@@ -0,0 +1,61 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.sidecar;
+
+import com.apigee.flow.message.Message;
+import com.apigee.flow.message.MessageContext;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * A MessageContext held in memory, so that the callouts can run outside
+ * Apigee. It holds flow variables in a map, and one request message; there
+ * is no response message. Not thread-safe: use one per execution.
+ */
+public final class InMemoryMessageContext implements MessageContext {
+  private final Map<String, Object> variables;
+  private final Message request;
+
+  public InMemoryMessageContext(Map<String, Object> variables, Message request) {
+    this.variables = new HashMap<String, Object>(variables);
+    this.request = (request != null) ? request : new InMemoryMessage(null);
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> T getVariable(String name) {
+    return (T) variables.get(name);
+  }
+
+  public boolean setVariable(String name, Object value) {
+    variables.put(name, value);
+    return true;
+  }
+
+  public boolean removeVariable(String name) {
+    return variables.remove(name) != null;
+  }
+
+  public Message getMessage() {
+    return request;
+  }
+
+  public Message getRequestMessage() {
+    return request;
+  }
+
+  public Message getResponseMessage() {
+    return null;
+  }
+}
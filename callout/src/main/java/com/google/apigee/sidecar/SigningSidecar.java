@@ -0,0 +1,371 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.sidecar;
+
+import com.apigee.flow.execution.ExecutionContext;
+import com.apigee.flow.execution.ExecutionResult;
+import com.apigee.flow.execution.spi.Execution;
+import com.google.apigee.callouts.rsa.V2SignedUrlCallout;
+import com.google.apigee.callouts.rsa.V4SignedUrlCallout;
+import com.google.apigee.metrics.LatencyHistogram;
+import com.google.apigee.metrics.SigningMetrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/*
+ * Runs the V2 and V4 signing callouts as a local HTTP sidecar, on the JDK's
+ * built-in server, so that workloads outside Apigee sign with the same code.
+ *
+ *   POST /v4/sign, POST /v2/sign   sign one URL, or a batch
+ *   GET  /metrics                  the callout and sidecar metrics, for Prometheus
+ *
+ * Each callout is constructed once, at startup, with the configured
+ * properties - the key, and any of cache-window, signer and so on - fixed.
+ * The request body is a JSON object that sets the per-request properties,
+ * for example {"verb": "GET", "bucket": "b", "object": "o", "expires-in":
+ * "10m"}; a "batch" array signs many. Each one reaches the callout as a flow
+ * variable that its property refers to, in an InMemoryMessageContext. The
+ * response is the callout output, in the json format, or {"error": ...}
+ * with status 400 for a bad request or 500 for an internal error.
+ *
+ * Requests are handled on a bounded pool, one thread per core by default;
+ * when its queue is full, the server's dispatcher thread runs the request
+ * itself, which holds off accepting more. Connections are kept alive.
+ */
+public final class SigningSidecar {
+  static final String USAGE =
+      "usage: SigningSidecar --key FILE [--port 8080] [--bind 127.0.0.1] [--threads N]\n"
+          + "         [--queue N] [--property name=value ...]";
+  // the properties a request may set, unless the configuration fixes them
+  static final List<String> REQUEST_PROPERTIES =
+      Arrays.asList(
+          "verb",
+          "resource",
+          "bucket",
+          "object",
+          "expires-in",
+          "expiry",
+          "addl-headers",
+          "addl-query",
+          "payload",
+          "batch",
+          "content-md5",
+          "content-type",
+          "access-id");
+  private static final String VARIABLE_PREFIX = "sidecar.";
+  private static final int QUEUE_PER_THREAD = 64;
+
+  private static final ExecutionContext EXECUTION_CONTEXT =
+      new ExecutionContext() {
+        public boolean isRequestFlow() {
+          return true;
+        }
+
+        public boolean isErrorFlow() {
+          return false;
+        }
+      };
+
+  static final class Config {
+    String bind = "127.0.0.1";
+    int port = 8080;
+    int threads = Runtime.getRuntime().availableProcessors();
+    int queue = 0; // 0 means QUEUE_PER_THREAD per thread
+    final Map<String, String> properties = new HashMap<String, String>();
+
+    static Config parse(String[] args) throws IOException {
+      Config config = new Config();
+      for (int i = 0; i < args.length; i += 2) {
+        if (i + 1 == args.length) throw new IllegalStateException(args[i] + " needs a value");
+        String value = args[i + 1];
+        switch (args[i]) {
+          case "--key":
+            config.properties.put(
+                "service-account-key",
+                new String(Files.readAllBytes(Paths.get(value)), StandardCharsets.UTF_8));
+            break;
+          case "--bind":
+            config.bind = value;
+            break;
+          case "--port":
+            config.port = parseNumber("--port", value, 0);
+            break;
+          case "--threads":
+            config.threads = parseNumber("--threads", value, 1);
+            break;
+          case "--queue":
+            config.queue = parseNumber("--queue", value, 1);
+            break;
+          case "--property":
+            String[] kv = value.split("=", 2);
+            if (kv.length != 2 || kv[0].isEmpty())
+              throw new IllegalStateException("--property must be name=value");
+            config.properties.put(kv[0], kv[1]);
+            break;
+          default:
+            throw new IllegalStateException("unknown option " + args[i]);
+        }
+      }
+      if (!config.properties.containsKey("service-account-key")
+          && !config.properties.containsKey("private-key")
+          && !config.properties.containsKey("remote-signer-url"))
+        throw new IllegalStateException("--key is required");
+      return config;
+    }
+
+    private static int parseNumber(String name, String value, int min) {
+      try {
+        int result = Integer.parseInt(value);
+        if (result >= min) return result;
+      } catch (NumberFormatException e) {
+        // fall through
+      }
+      throw new IllegalStateException(name + " must be an integer, at least " + min);
+    }
+  }
+
+  private final Config config;
+  private final Map<String, Execution> callouts = new HashMap<String, Execution>();
+  private final ConcurrentHashMap<String, LongAdder> requestCounts =
+      new ConcurrentHashMap<String, LongAdder>();
+  private final ConcurrentHashMap<String, LatencyHistogram> latencies =
+      new ConcurrentHashMap<String, LatencyHistogram>();
+  private HttpServer server;
+  private ThreadPoolExecutor pool;
+
+  public SigningSidecar(Config config) {
+    this.config = config;
+    Map<String, String> properties = new HashMap<String, String>(config.properties);
+    for (String name : REQUEST_PROPERTIES) {
+      if (!properties.containsKey(name)) properties.put(name, "{" + VARIABLE_PREFIX + name + "}");
+    }
+    properties.put("output-format", "json");
+    properties.putIfAbsent("timing", "true");
+    callouts.put("/v4/sign", new V4SignedUrlCallout(properties));
+    callouts.put("/v2/sign", new V2SignedUrlCallout(properties));
+  }
+
+  // Starts the server, and returns the port it listens on.
+  public int start() throws IOException {
+    AtomicInteger threadNumber = new AtomicInteger();
+    pool =
+        new ThreadPoolExecutor(
+            config.threads,
+            config.threads,
+            60L,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(
+                (config.queue > 0) ? config.queue : config.threads * QUEUE_PER_THREAD),
+            r -> {
+              Thread thread = new Thread(r, "signing-sidecar-" + threadNumber.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+    server = HttpServer.create(new InetSocketAddress(config.bind, config.port), 0);
+    for (String path : callouts.keySet()) {
+      server.createContext(path, exchange -> handleSign(exchange, path));
+    }
+    server.createContext("/metrics", this::handleMetrics);
+    server.setExecutor(pool);
+    server.start();
+    return server.getAddress().getPort();
+  }
+
+  public void stop() {
+    server.stop(0);
+    pool.shutdownNow();
+  }
+
+  private static byte[] readBody(HttpExchange exchange) throws IOException {
+    try (InputStream in = exchange.getRequestBody()) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = in.read(buffer)) != -1) out.write(buffer, 0, n);
+      return out.toByteArray();
+    }
+  }
+
+  // The flow variables for the properties that the request sets.
+  private Map<String, Object> requestVariables(byte[] body) {
+    JsonObject request;
+    try (JsonReader reader =
+        Json.createReader(new StringReader(new String(body, StandardCharsets.UTF_8)))) {
+      request = reader.readObject();
+    } catch (JsonException | IllegalStateException e) {
+      throw new IllegalStateException("the request is not a JSON object");
+    }
+    Map<String, Object> variables = new HashMap<String, Object>();
+    for (Map.Entry<String, JsonValue> entry : request.entrySet()) {
+      String name = entry.getKey();
+      if (!REQUEST_PROPERTIES.contains(name) || config.properties.containsKey(name))
+        throw new IllegalStateException("a request cannot set " + name);
+      JsonValue value = entry.getValue();
+      variables.put(
+          VARIABLE_PREFIX + name,
+          (value instanceof JsonString) ? ((JsonString) value).getString() : value.toString());
+    }
+    return variables;
+  }
+
+  private static String errorJson(Object error) {
+    return Json.createObjectBuilder().add("error", String.valueOf(error)).build().toString();
+  }
+
+  private void handleSign(HttpExchange exchange, String path) throws IOException {
+    long start = System.nanoTime();
+    int status;
+    String response;
+    try {
+      byte[] body = readBody(exchange);
+      if (!exchange.getRequestMethod().equals("POST")) {
+        status = 405;
+        response = errorJson("use POST");
+      } else {
+        InMemoryMessageContext msgCtxt =
+            new InMemoryMessageContext(requestVariables(body), null);
+        ExecutionResult result = callouts.get(path).execute(msgCtxt, EXECUTION_CONTEXT);
+        if (result == ExecutionResult.SUCCESS) {
+          status = 200;
+          response = msgCtxt.getVariable("sign_result");
+        } else {
+          status = (msgCtxt.getVariable("sign_stacktrace") != null) ? 500 : 400;
+          response = errorJson(msgCtxt.getVariable("sign_error"));
+        }
+      }
+    } catch (IllegalStateException e) {
+      status = 400;
+      response = errorJson(e.getMessage());
+    }
+    send(exchange, status, "application/json", response);
+    record(path, status, System.nanoTime() - start);
+  }
+
+  private void handleMetrics(HttpExchange exchange) throws IOException {
+    readBody(exchange);
+    send(
+        exchange,
+        200,
+        "text/plain; version=0.0.4",
+        SigningMetrics.toPrometheusText() + metricsText());
+  }
+
+  private static void send(HttpExchange exchange, int status, String contentType, String body)
+      throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    // a fixed length, so that the connection can be kept alive
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  private void record(String path, int status, long nanos) {
+    requestCounts.computeIfAbsent(path + "\t" + status, k -> new LongAdder()).increment();
+    latencies.computeIfAbsent(path, k -> new LatencyHistogram()).record(nanos);
+  }
+
+  // The sidecar's own metrics, in the Prometheus text format.
+  String metricsText() {
+    StringBuilder sb = new StringBuilder(1024);
+    sb.append("# HELP signedurl_sidecar_requests_total Sidecar requests, by path and status.\n");
+    sb.append("# TYPE signedurl_sidecar_requests_total counter\n");
+    for (Map.Entry<String, LongAdder> entry :
+        new TreeMap<String, LongAdder>(requestCounts).entrySet()) {
+      String[] key = entry.getKey().split("\t");
+      sb.append("signedurl_sidecar_requests_total{path=\"")
+          .append(key[0])
+          .append("\",status=\"")
+          .append(key[1])
+          .append("\"} ")
+          .append(entry.getValue().sum())
+          .append('\n');
+    }
+    sb.append("# HELP signedurl_sidecar_request_seconds Sidecar request latency, by path.\n");
+    sb.append("# TYPE signedurl_sidecar_request_seconds summary\n");
+    for (Map.Entry<String, LatencyHistogram> entry :
+        new TreeMap<String, LatencyHistogram>(latencies).entrySet()) {
+      LatencyHistogram histogram = entry.getValue();
+      String labels = "path=\"" + entry.getKey() + "\"";
+      for (double quantile : new double[] {0.5, 0.99}) {
+        sb.append("signedurl_sidecar_request_seconds{")
+            .append(labels)
+            .append(",quantile=\"")
+            .append(quantile)
+            .append("\"} ")
+            .append(histogram.getValueAtQuantile(quantile) / 1e9)
+            .append('\n');
+      }
+      sb.append("signedurl_sidecar_request_seconds_count{")
+          .append(labels)
+          .append("} ")
+          .append(histogram.getCount())
+          .append('\n');
+    }
+    sb.append("# HELP signedurl_sidecar_queued_requests Requests waiting for a worker.\n");
+    sb.append("# TYPE signedurl_sidecar_queued_requests gauge\n");
+    sb.append("signedurl_sidecar_queued_requests ")
+        .append((pool != null) ? pool.getQueue().size() : 0)
+        .append('\n');
+    return sb.toString();
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+      Security.addProvider(new BouncyCastleProvider());
+    }
+    SigningSidecar sidecar;
+    try {
+      sidecar = new SigningSidecar(Config.parse(args));
+    } catch (IllegalStateException e) {
+      System.err.println("error: " + e.getMessage());
+      System.err.println(USAGE);
+      System.exit(2);
+      return;
+    }
+    int port = sidecar.start();
+    System.err.println("signing sidecar listening on port " + port);
+  }
+}
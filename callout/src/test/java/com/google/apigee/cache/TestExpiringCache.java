@@ -0,0 +1,78 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.cache;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestExpiringCache {
+
+  @Test
+  public void loadsOnce() throws Exception {
+    ExpiringCache<String, String> cache = new ExpiringCache<String, String>(4, 60000L);
+    AtomicInteger loads = new AtomicInteger();
+    for (int i = 0; i < 5; i++) {
+      String value =
+          cache.get(
+              "a",
+              k -> {
+                loads.incrementAndGet();
+                return k.toUpperCase();
+              });
+      Assert.assertEquals(value, "A");
+    }
+    Assert.assertEquals(loads.get(), 1, "loads");
+  }
+
+  @Test
+  public void evictsSoonestExpiry() throws Exception {
+    ExpiringCache<String, String> cache = new ExpiringCache<String, String>(2, 60000L);
+    long now = System.currentTimeMillis();
+    cache.put("late", "1", now + 50000L);
+    cache.put("early", "2", now + 10000L);
+    cache.put("middle", "3", now + 30000L);
+    Assert.assertEquals(cache.size(), 2, "size");
+    Assert.assertNull(cache.get("early"), "early");
+    Assert.assertEquals(cache.get("late"), "1");
+    Assert.assertEquals(cache.get("middle"), "3");
+  }
+
+  @Test
+  public void expiredEntriesAreNotReturned() throws Exception {
+    ExpiringCache<String, String> cache = new ExpiringCache<String, String>(2, 60000L);
+    cache.put("a", "1", System.currentTimeMillis() - 1);
+    Assert.assertNull(cache.get("a"), "expired");
+    Assert.assertEquals(cache.size(), 0, "size");
+  }
+
+  @Test
+  public void failedLoadIsNotCached() throws Exception {
+    ExpiringCache<String, String> cache = new ExpiringCache<String, String>(2, 60000L);
+    try {
+      cache.get(
+          "a",
+          k -> {
+            throw new IllegalStateException("nope");
+          });
+      Assert.fail("expected exception");
+    } catch (IllegalStateException e) {
+      Assert.assertEquals(e.getMessage(), "nope");
+    }
+    Assert.assertEquals(cache.size(), 0, "size");
+    Assert.assertEquals(cache.get("a", k -> "ok"), "ok");
+  }
+}
@@ -0,0 +1,213 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.callouts.rsa;
+
+import com.apigee.flow.execution.ExecutionResult;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestBulkSigner extends TestSignBase {
+  private static final Instant signedAt = Instant.parse("2021-06-01T12:00:00Z");
+  private static final int LINES = 60;
+
+  private static Path writeManifest(Path dir) throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < LINES; i++) {
+      sb.append("my-bucket\tfolder/object ").append(i).append(".txt");
+      if (i % 7 == 0) sb.append("\tPUT");
+      sb.append((i % 5 == 0) ? "\r\n" : "\n");
+    }
+    Path manifest = dir.resolve("manifest.tsv");
+    Files.write(manifest, sb.toString().getBytes(StandardCharsets.UTF_8));
+    return manifest;
+  }
+
+  private static BulkSigner.Result run(Path dir, String version, long offset) throws Exception {
+    PrintStream progress = new PrintStream(new ByteArrayOutputStream(), true, "UTF-8");
+    return run(dir, version, offset, 8 << 20, progress);
+  }
+
+  private static BulkSigner.Result run(
+      Path dir, String version, long offset, int bufferBytes, PrintStream progress)
+      throws Exception {
+    Files.write(dir.resolve("key.json"), serviceAccountKey1.getBytes(StandardCharsets.UTF_8));
+    BulkSigner.Options options =
+        BulkSigner.Options.parse(
+            new String[] {
+              "--key", dir.resolve("key.json").toString(),
+              "--manifest", dir.resolve("manifest.tsv").toString(),
+              "--output", dir.resolve("urls.txt").toString(),
+              "--version", version,
+              "--expires-in", "10m",
+              "--threads", "4",
+              "--chunk-bytes", "100",
+              "--offset", Long.toString(offset),
+              "--buffer-bytes", Integer.toString(bufferBytes)
+            });
+    return new BulkSigner(options, SigningClock.fixed(signedAt), progress).run();
+  }
+
+  private static List<String> readUrls(Path dir) throws Exception {
+    return new ArrayList<String>(Files.readAllLines(dir.resolve("urls.txt")));
+  }
+
+  @Test
+  public void v4MatchesTheCallout() throws Exception {
+    Path dir = Files.createTempDirectory("bulk");
+    Path manifest = writeManifest(dir);
+    BulkSigner.Result result = run(dir, "v4", 0);
+    Assert.assertEquals(result.urls, LINES);
+    Assert.assertEquals(result.nextOffset, Files.size(manifest));
+    List<String> urls = readUrls(dir);
+    Assert.assertEquals(urls.size(), LINES);
+    for (int i = 0; i < LINES; i += 7) {
+      Map<String, String> props = new HashMap<String, String>();
+      props.put("service-account-key", serviceAccountKey1);
+      props.put("verb", (i % 7 == 0) ? "PUT" : "GET");
+      props.put("expires-in", "10m");
+      props.put("bucket", "my-bucket");
+      props.put("object", "folder/object " + i + ".txt");
+      V4SignedUrlCallout callout = new V4SignedUrlCallout(props, SigningClock.fixed(signedAt));
+      Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+      Assert.assertEquals(urls.get(i), msgCtxt.getVariable("sign_signedurl"), "line " + i);
+    }
+  }
+
+  @Test
+  public void v2MatchesTheCallout() throws Exception {
+    Path dir = Files.createTempDirectory("bulk");
+    writeManifest(dir);
+    run(dir, "v2", 0);
+    List<String> urls = readUrls(dir);
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", serviceAccountKey1);
+    props.put("verb", "GET");
+    props.put("expires-in", "10m");
+    props.put("resource", "/my-bucket/folder/object%201.txt");
+    V2SignedUrlCallout callout = new V2SignedUrlCallout(props, SigningClock.fixed(signedAt));
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    Assert.assertEquals(urls.get(1), msgCtxt.getVariable("sign_signedurl"));
+  }
+
+  @Test
+  public void resumeFromOffset() throws Exception {
+    Path dir = Files.createTempDirectory("bulk");
+    Path manifest = writeManifest(dir);
+    run(dir, "v4", 0);
+    List<String> all = readUrls(dir);
+
+    // the offset of line 25, as if an earlier run had stopped there
+    byte[] bytes = Files.readAllBytes(manifest);
+    int offset = 0;
+    for (int line = 0; line < 25; offset++) {
+      if (bytes[offset] == '\n') line++;
+    }
+    Files.write(
+        dir.resolve("urls.txt"),
+        (String.join("\n", all.subList(0, 25)) + "\n").getBytes(StandardCharsets.US_ASCII));
+    BulkSigner.Result result = run(dir, "v4", offset);
+    Assert.assertEquals(result.urls, LINES - 25);
+    Assert.assertEquals(readUrls(dir), all);
+  }
+
+  // Records progress reports, and stops the run, as a kill would, at the next one.
+  private static final class InterruptingProgress extends PrintStream {
+    final List<String> reports = new ArrayList<String>();
+    private final int limit;
+
+    InterruptingProgress(int limit) {
+      super(new ByteArrayOutputStream());
+      this.limit = limit;
+    }
+
+    @Override
+    public PrintStream format(String format, Object... args) {
+      if (reports.size() == limit) throw new IllegalStateException("interrupted");
+      reports.add(String.format(format, args));
+      return this;
+    }
+  }
+
+  @Test
+  public void resumeAfterInterruption() throws Exception {
+    Path dir = Files.createTempDirectory("bulk");
+    Path manifest = writeManifest(dir);
+    run(dir, "v4", 0);
+    List<String> all = readUrls(dir);
+
+    // a small buffer, so that it is flushed many times; the run stops after
+    // its last flush reached the disk but before it was reported
+    InterruptingProgress progress = new InterruptingProgress(2);
+    try {
+      run(dir, "v4", 0, 4096, progress);
+      Assert.fail("expected an exception");
+    } catch (IllegalStateException e) {
+      Assert.assertEquals(e.getMessage(), "interrupted");
+    }
+    Matcher matcher = Pattern.compile("next offset (\\d+)").matcher(progress.reports.get(1));
+    Assert.assertTrue(matcher.find(), progress.reports.get(1));
+    long offset = Long.parseLong(matcher.group(1));
+    Assert.assertTrue(offset > 0 && offset < Files.size(manifest), "offset " + offset);
+    int reported = 0;
+    for (byte b : Arrays.copyOf(Files.readAllBytes(manifest), (int) offset)) {
+      if (b == '\n') reported++;
+    }
+    Assert.assertTrue(readUrls(dir).size() > reported, "output past the reported offset");
+
+    // resuming drops the URLs written after the report, so none is repeated
+    BulkSigner.Result result = run(dir, "v4", offset);
+    Assert.assertEquals(result.urls, LINES - reported);
+    Assert.assertEquals(readUrls(dir), all);
+  }
+
+  @Test
+  public void invalidManifestLine() throws Exception {
+    Path dir = Files.createTempDirectory("bulk");
+    Files.write(
+        dir.resolve("manifest.tsv"),
+        "my-bucket\ta.txt\nno-object-here\n".getBytes(StandardCharsets.UTF_8));
+    try {
+      run(dir, "v4", 0);
+      Assert.fail("expected an exception");
+    } catch (IllegalStateException e) {
+      Assert.assertEquals(e.getMessage(), "the manifest line at offset 16 is invalid");
+    }
+  }
+
+  @Test
+  public void offsetMustStartALine() throws Exception {
+    Path dir = Files.createTempDirectory("bulk");
+    writeManifest(dir);
+    try {
+      run(dir, "v4", 3);
+      Assert.fail("expected an exception");
+    } catch (IllegalStateException e) {
+      Assert.assertEquals(e.getMessage(), "--offset must be the start of a line");
+    }
+  }
+}
@@ -0,0 +1,74 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts.rsa;
+
+import com.apigee.flow.execution.ExecutionResult;
+import java.util.HashMap;
+import java.util.Map;
+import org.bouncycastle.util.encoders.Hex;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestCanonicalRequestDigest extends TestSignBase {
+
+  private static String repeat(String s, int n) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < n; i++) sb.append(s);
+    return sb.toString();
+  }
+
+  @Test
+  public void sameAsHashOfString() throws Exception {
+    String[] inputs = {
+      "",
+      "GET\n/foo/bar\nX-Goog-Algorithm=GOOG4-RSA-SHA256\nhost:storage.googleapis.com\n\nhost\nUNSIGNED-PAYLOAD",
+      "café/über/日本語",
+      "emoji 😀 and an unpaired \ud83d surrogate \ude00",
+      repeat("abcdefghé", 300),
+      repeat("日", 1000)
+    };
+    for (String input : inputs) {
+      CanonicalRequestDigest digest = CanonicalRequestDigest.forCurrentThread().reset(true);
+      digest.append(input);
+      String actual = Hex.toHexString(digest.finish());
+      Assert.assertEquals(actual, SigningCalloutBase.sha256Hex(input), input);
+      Assert.assertEquals(digest.getCanonicalRequest(), input);
+    }
+  }
+
+  @Test
+  public void canonicalRequestOnlyWhenDebug() throws Exception {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", serviceAccountKey1);
+    props.put("verb", "GET");
+    props.put("expires-in", "10m");
+    props.put("resource", "/foo/bar");
+
+    ExecutionResult actualResult = new V4SignedUrlCallout(props).execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, "result not as expected");
+    Assert.assertNull(msgCtxt.getVariable("sign_canonical_request"), "canonical request");
+
+    props.put("debug", "true");
+    actualResult = new V4SignedUrlCallout(props).execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, "result not as expected");
+    String canonicalRequest = msgCtxt.getVariable("sign_canonical_request");
+    Assert.assertNotNull(canonicalRequest, "canonical request");
+    String stringToSign = msgCtxt.getVariable("sign_string_to_sign");
+    Assert.assertTrue(
+        stringToSign.endsWith("\n" + SigningCalloutBase.sha256Hex(canonicalRequest)),
+        "hashed canonical request");
+  }
+}
@@ -0,0 +1,107 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts.rsa;
+
+import com.apigee.flow.execution.ExecutionResult;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestCdnSignedUrlCallout extends TestSignBase {
+  private static final String key = "nZtRohdNF9m3cKM24IcK4w==";
+  private static final SigningClock clock =
+      SigningClock.fixed(Instant.parse("2019-10-24T22:54:41Z"));
+
+  // computed independently with the JCA
+  private static String expectedSignature(String toSign) throws Exception {
+    Mac mac = Mac.getInstance("HmacSHA1");
+    mac.init(new SecretKeySpec(Base64.getUrlDecoder().decode(key), "HmacSHA1"));
+    return Base64.getUrlEncoder()
+        .encodeToString(mac.doFinal(toSign.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private Map<String, String> baseProperties(String mode) {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("mode", mode);
+    props.put("key-name", "my-key");
+    props.put("key", key);
+    props.put("expires-in", "10m");
+    return props;
+  }
+
+  @Test
+  public void signedUrl() throws Exception {
+    Map<String, String> props = baseProperties("url");
+    props.put("url", "https://media.example.com/videos/a.mp4?quality=hd");
+
+    CdnSignedUrlCallout callout = new CdnSignedUrlCallout(props, clock);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    String toSign =
+        "https://media.example.com/videos/a.mp4?quality=hd&Expires=1571958281&KeyName=my-key";
+    Assert.assertEquals(
+        msgCtxt.getVariable("sign_signedurl"),
+        toSign + "&Signature=" + expectedSignature(toSign));
+  }
+
+  @Test
+  public void signedPrefix() throws Exception {
+    Map<String, String> props = baseProperties("prefix");
+    props.put("url-prefix", "https://media.example.com/videos/");
+    props.put("url", "https://media.example.com/videos/playlist.m3u8");
+
+    CdnSignedUrlCallout callout = new CdnSignedUrlCallout(props, clock);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    String toSign =
+        "URLPrefix=aHR0cHM6Ly9tZWRpYS5leGFtcGxlLmNvbS92aWRlb3Mv"
+            + "&Expires=1571958281&KeyName=my-key";
+    String query = toSign + "&Signature=" + expectedSignature(toSign);
+    Assert.assertEquals(msgCtxt.getVariable("sign_signed_query"), query);
+    Assert.assertEquals(
+        msgCtxt.getVariable("sign_signedurl"),
+        "https://media.example.com/videos/playlist.m3u8?" + query);
+  }
+
+  @Test
+  public void signedCookie() throws Exception {
+    Map<String, String> props = baseProperties("cookie");
+    props.put("url-prefix", "https://media.example.com/videos/");
+
+    CdnSignedUrlCallout callout = new CdnSignedUrlCallout(props, clock);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    String toSign =
+        "URLPrefix=aHR0cHM6Ly9tZWRpYS5leGFtcGxlLmNvbS92aWRlb3Mv"
+            + ":Expires=1571958281:KeyName=my-key";
+    Assert.assertEquals(
+        msgCtxt.getVariable("sign_cookie"),
+        "Cloud-CDN-Cookie=" + toSign + ":Signature=" + expectedSignature(toSign));
+  }
+
+  @Test
+  public void badMode() throws Exception {
+    Map<String, String> props = baseProperties("everything");
+
+    CdnSignedUrlCallout callout = new CdnSignedUrlCallout(props, clock);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+    Assert.assertEquals(
+        msgCtxt.getVariable("sign_error"), "mode must be one of url, prefix, cookie");
+  }
+}
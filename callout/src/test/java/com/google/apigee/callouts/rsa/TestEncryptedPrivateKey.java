@@ -0,0 +1,143 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.callouts.rsa;
+
+import com.apigee.flow.execution.ExecutionResult;
+import java.io.StringWriter;
+import java.security.KeyPair;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import org.bouncycastle.openssl.jcajce.JcaMiscPEMGenerator;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.openssl.jcajce.JcaPKCS8Generator;
+import org.bouncycastle.openssl.jcajce.JceOpenSSLPKCS8EncryptorBuilder;
+import org.bouncycastle.openssl.jcajce.JcePEMEncryptorBuilder;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestEncryptedPrivateKey extends TestSignBase {
+  private static final Instant signedAt = Instant.parse("2021-06-01T12:00:00Z");
+  private static final String clientEmail =
+      "account-223456789@project-apigee.iam.gserviceaccount.com";
+  private static final String password = "Secret123";
+
+  private static KeyPair testKeyPair() throws Exception {
+    return SigningCalloutBase.readKeyPair(privateKey2, null);
+  }
+
+  // "openssl pkcs8 -topk8 -v2 aes256", with PBKDF2
+  private static String pkcs8EncryptedPem() throws Exception {
+    StringWriter sw = new StringWriter();
+    try (JcaPEMWriter writer = new JcaPEMWriter(sw)) {
+      writer.writeObject(
+          new JcaPKCS8Generator(
+              testKeyPair().getPrivate(),
+              new JceOpenSSLPKCS8EncryptorBuilder(JcaPKCS8Generator.AES_256_CBC)
+                  .setPasssword(password.toCharArray())
+                  .build()));
+    }
+    return sw.toString();
+  }
+
+  // "openssl rsa -aes128"
+  private static String traditionalEncryptedPem() throws Exception {
+    StringWriter sw = new StringWriter();
+    try (JcaPEMWriter writer = new JcaPEMWriter(sw)) {
+      writer.writeObject(
+          new JcaMiscPEMGenerator(
+              testKeyPair().getPrivate(),
+              new JcePEMEncryptorBuilder("AES-128-CBC").build(password.toCharArray())));
+    }
+    return sw.toString();
+  }
+
+  private Map<String, String> signingProps() {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("verb", "GET");
+    props.put("expires-in", "10m");
+    props.put("resource", "/my-bucket/my-object.txt");
+    return props;
+  }
+
+  private String sign(Map<String, String> props) {
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props, SigningClock.fixed(signedAt));
+    ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(
+        result, ExecutionResult.SUCCESS, "error: " + msgCtxt.getVariable("sign_error"));
+    return msgCtxt.getVariable("sign_signedurl");
+  }
+
+  @Test
+  public void encryptedKeysSignAsTheServiceAccountKey() throws Exception {
+    Map<String, String> props = signingProps();
+    props.put("service-account-key", serviceAccountKey1);
+    String expected = sign(props);
+
+    for (String pem : new String[] {pkcs8EncryptedPem(), traditionalEncryptedPem()}) {
+      props = signingProps();
+      props.put("private-key", pem);
+      props.put("private-key-password", password);
+      props.put("service-account-email", clientEmail);
+      Assert.assertEquals(sign(props), expected);
+    }
+  }
+
+  @Test
+  public void wrongPassword() throws Exception {
+    Map<String, String> props = signingProps();
+    props.put("private-key", pkcs8EncryptedPem());
+    props.put("private-key-password", "not-the-password");
+    props.put("service-account-email", clientEmail);
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props, SigningClock.fixed(signedAt));
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+    Assert.assertEquals(
+        msgCtxt.getVariable("sign_error"),
+        "the private key cannot be decrypted; check private-key-password");
+    Assert.assertNull(msgCtxt.getVariable("sign_stacktrace"));
+  }
+
+  @Test
+  public void privateKeyNeedsEmail() throws Exception {
+    Map<String, String> props = signingProps();
+    props.put("private-key", privateKey2);
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props, SigningClock.fixed(signedAt));
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+    Assert.assertEquals(
+        msgCtxt.getVariable("sign_error"), "service-account-email resolves to an empty string");
+  }
+
+  @Test
+  public void decryptedKeyIsCached() throws Exception {
+    Map<String, String> props = signingProps();
+    props.put("private-key", pkcs8EncryptedPem());
+    props.put("private-key-password", password);
+    props.put("service-account-email", clientEmail);
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props, SigningClock.fixed(signedAt));
+    SigningKey first = callout.getSigningKey(msgCtxt);
+    Assert.assertSame(callout.getSigningKey(msgCtxt), first);
+    Assert.assertSame(callout.getSigningKey(msgCtxt).getKeyPair(), first.getKeyPair());
+
+    // the same key with another password is another entry
+    props.put("private-key-password", "not-the-password");
+    callout = new V4SignedUrlCallout(props, SigningClock.fixed(signedAt));
+    try {
+      callout.getSigningKey(msgCtxt);
+      Assert.fail("expected an exception");
+    } catch (IllegalStateException e) {
+      Assert.assertTrue(e.getMessage().startsWith("the private key cannot be decrypted"));
+    }
+  }
+}
@@ -0,0 +1,61 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.callouts.rsa;
+
+import java.nio.charset.StandardCharsets;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestHmacSigner {
+  private static final String secret = "bGoa+V7g/yqDXvKRqq+JTFn4uQZbPiQJo4pf9RzJ";
+
+  // the signing key chain, computed independently with the JCA
+  static byte[] expectedSignature(String secret, String date, String stringToSign)
+      throws Exception {
+    byte[] key = hmac(("GOOG4" + secret).getBytes(StandardCharsets.UTF_8), date);
+    key = hmac(key, "us");
+    key = hmac(key, "storage");
+    key = hmac(key, "goog4_request");
+    return hmac(key, stringToSign);
+  }
+
+  private static byte[] hmac(byte[] key, String data) throws Exception {
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(key, "HmacSHA256"));
+    return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void derivedKeyChain() throws Exception {
+    String stringToSign =
+        "GOOG4-HMAC-SHA256\n20191024T225441Z\n20191024/us/storage/goog4_request\nabc";
+    HmacSigner signer = HmacSigner.forScope(secret, "20191024", "us");
+    byte[] expected = expectedSignature(secret, "20191024", stringToSign);
+    // twice, to exercise reuse of the per-thread mac
+    Assert.assertEquals(signer.sign(stringToSign), expected);
+    Assert.assertEquals(signer.sign(stringToSign), expected);
+  }
+
+  @Test
+  public void cachedPerScope() throws Exception {
+    HmacSigner signer = HmacSigner.forScope(secret, "20191024", "us");
+    Assert.assertSame(HmacSigner.forScope(secret, "20191024", "us"), signer);
+    Assert.assertNotSame(HmacSigner.forScope(secret, "20191025", "us"), signer);
+    Assert.assertNotSame(HmacSigner.forScope(secret, "20191024", "auto"), signer);
+    Assert.assertNotSame(HmacSigner.forScope(secret + "x", "20191024", "us"), signer);
+  }
+}
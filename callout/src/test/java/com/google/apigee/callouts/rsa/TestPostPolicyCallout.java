@@ -0,0 +1,116 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.callouts.rsa;
+
+import com.apigee.flow.execution.ExecutionResult;
+import com.google.apigee.json.JavaxJson;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.bouncycastle.util.encoders.Hex;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestPostPolicyCallout extends TestSignBase {
+
+  private Map<String, String> baseProperties() {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", serviceAccountKey1);
+    props.put("bucket", "example-bucket");
+    props.put("expires-in", "1h");
+    return props;
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void policyWithPrefix() throws Exception {
+    Map<String, String> props = baseProperties();
+    props.put("key-prefix", "uploads/");
+    props.put("content-length-range", "0, 1048576");
+    props.put("content-type", "image/png");
+
+    SigningClock clock = SigningClock.fixed(Instant.parse("2019-10-24T22:54:41Z"));
+    V4PostPolicyCallout callout = new V4PostPolicyCallout(props, clock);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    Assert.assertEquals(
+        msgCtxt.getVariable("sign_url"), "https://storage.googleapis.com/example-bucket/");
+
+    String policy = msgCtxt.getVariable("sign_policy");
+    String document = new String(Base64.getDecoder().decode(policy), StandardCharsets.UTF_8);
+    Map<String, Object> decoded = JavaxJson.fromJson(document, Map.class);
+    Assert.assertEquals(decoded.get("expiration"), "2019-10-24T23:54:41Z");
+    List<Object> conditions = (List<Object>) decoded.get("conditions");
+    Assert.assertTrue(document.contains("[\"starts-with\",\"$key\",\"uploads/\"]"), document);
+    Assert.assertTrue(document.contains("[\"content-length-range\",0,1048576]"), document);
+    Assert.assertTrue(document.contains("{\"Content-Type\":\"image/png\"}"), document);
+    Assert.assertTrue(document.contains("{\"x-goog-date\":\"20191024T225441Z\"}"), document);
+    Assert.assertEquals(conditions.size(), 7);
+
+    Map<String, Object> fields =
+        JavaxJson.fromJson((String) msgCtxt.getVariable("sign_form_fields"), Map.class);
+    Assert.assertEquals(fields.get("key"), "uploads/${filename}");
+    Assert.assertEquals(fields.get("policy"), policy);
+    Assert.assertEquals(fields.get("x-goog-algorithm"), "GOOG4-RSA-SHA256");
+    Assert.assertEquals(
+        fields.get("x-goog-credential"),
+        SigningCalloutBase.parseServiceAccountKey(serviceAccountKey1).get("client_email")
+            + "/20191024/us/storage/goog4_request");
+
+    // the signature is over the base64-encoded policy
+    Map<String, String> info = SigningCalloutBase.parseServiceAccountKey(serviceAccountKey1);
+    KeyPair keyPair = SigningCalloutBase.readKeyPair(info.get("private_key"), null);
+    Assert.assertEquals(
+        fields.get("x-goog-signature"),
+        Hex.toHexString(SigningCalloutBase.sign_RSA_SHA256(policy, keyPair)));
+  }
+
+  @Test
+  public void exactKey() throws Exception {
+    Map<String, String> props = baseProperties();
+    props.put("object", "uploads/cat.png");
+
+    V4PostPolicyCallout callout = new V4PostPolicyCallout(props);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    String document =
+        new String(
+            Base64.getDecoder().decode((String) msgCtxt.getVariable("sign_policy")),
+            StandardCharsets.UTF_8);
+    Assert.assertTrue(document.contains("{\"key\":\"uploads/cat.png\"}"), document);
+    Assert.assertFalse(document.contains("starts-with"), document);
+  }
+
+  @Test
+  public void badLengthRange() throws Exception {
+    Map<String, String> props = baseProperties();
+    props.put("content-length-range", "100");
+
+    V4PostPolicyCallout callout = new V4PostPolicyCallout(props);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+    Assert.assertEquals(msgCtxt.getVariable("sign_error"), "content-length-range must be min,max");
+  }
+
+  @Test
+  public void missingBucket() throws Exception {
+    Map<String, String> props = baseProperties();
+    props.remove("bucket");
+
+    V4PostPolicyCallout callout = new V4PostPolicyCallout(props);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+  }
+}
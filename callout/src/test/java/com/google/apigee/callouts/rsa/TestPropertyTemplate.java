@@ -0,0 +1,77 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts.rsa;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestPropertyTemplate extends TestSignBase {
+
+  // the regex-based resolution that PropertyTemplate replaced
+  private static final Pattern variableReferencePattern =
+      Pattern.compile("(.*?)\\{([^\\{\\} ]+?)\\}(.*?)");
+
+  private String regexResolve(String spec) {
+    Matcher matcher = variableReferencePattern.matcher(spec);
+    StringBuffer sb = new StringBuffer();
+    while (matcher.find()) {
+      matcher.appendReplacement(sb, "");
+      sb.append(matcher.group(1));
+      Object v = msgCtxt.getVariable(matcher.group(2));
+      if (v != null) {
+        sb.append((String) v);
+      }
+      sb.append(matcher.group(3));
+    }
+    matcher.appendTail(sb);
+    return sb.toString();
+  }
+
+  @Test
+  public void sameAsRegexResolution() throws Exception {
+    msgCtxt.setVariable("a", "A");
+    msgCtxt.setVariable("b.c", "BC");
+    msgCtxt.setVariable("dollar", "$1\\x");
+    String[] specs = {
+      "",
+      "plain",
+      "{a}",
+      "x{a}y{b.c}z",
+      "{missing}-{a}",
+      "{a b}{a}",
+      "{{a}}",
+      "{}{a}{",
+      "}{a}{b.c",
+      "{\"object\": \"foo\"}",
+      "{dollar}",
+      "https://storage.googleapis.com{a}?x={b.c}&y={a}"
+    };
+    for (String spec : specs) {
+      Assert.assertEquals(PropertyTemplate.compile(spec).resolve(msgCtxt), regexResolve(spec), spec);
+    }
+  }
+
+  @Test
+  public void literal() throws Exception {
+    PropertyTemplate template = PropertyTemplate.compile("10m");
+    Assert.assertTrue(template.isLiteral());
+    Assert.assertEquals(template.getLiteralValue(), "10m");
+    Assert.assertFalse(PropertyTemplate.compile("{ttl}").isLiteral());
+    Assert.assertTrue(PropertyTemplate.compile("{not a ref}").isLiteral());
+  }
+}
@@ -0,0 +1,262 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts.rsa;
+
+import com.apigee.flow.execution.ExecutionResult;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestRemoteSigner extends TestSignBase {
+  private HttpServer server;
+  private KeyPair keyPair;
+  private String clientEmail;
+  private final AtomicInteger requests = new AtomicInteger();
+  private final AtomicInteger batchRequests = new AtomicInteger();
+  private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+  private volatile int status = 200;
+  private volatile long delayMillis = 0;
+
+  // a stand-in for the IAM signBlob method, signing with a known key
+  @BeforeMethod
+  public void startServer() throws Exception {
+    status = 200;
+    delayMillis = 0;
+    requests.set(0);
+    batchRequests.set(0);
+    clientPorts.clear();
+    Map<String, String> info = SigningCalloutBase.parseServiceAccountKey(serviceAccountKey1);
+    clientEmail = info.get("client_email");
+    keyPair = SigningCalloutBase.readKeyPair(info.get("private_key"), null);
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/signBlob", exchange -> handle(exchange, false));
+    server.createContext("/signBlobs", exchange -> handle(exchange, true));
+    server.setExecutor(Executors.newFixedThreadPool(8));
+    server.start();
+  }
+
+  @AfterMethod
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  private URL url(String path) throws Exception {
+    return new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+  }
+
+  private String sign(String payload) throws Exception {
+    byte[] message = Base64.getDecoder().decode(payload);
+    String signingBase = new String(message, StandardCharsets.UTF_8);
+    return Base64.getEncoder()
+        .encodeToString(SigningCalloutBase.sign_RSA_SHA256(signingBase, keyPair));
+  }
+
+  private void handle(HttpExchange exchange, boolean batch) throws java.io.IOException {
+    try {
+      requests.incrementAndGet();
+      clientPorts.add(exchange.getRemoteAddress().getPort());
+      JsonObject request;
+      try (InputStream in = exchange.getRequestBody();
+          JsonReader reader = Json.createReader(new StringReader(readAll(in)))) {
+        request = reader.readObject();
+      }
+      if (delayMillis > 0) Thread.sleep(delayMillis);
+      String response;
+      if (status != 200) {
+        response = "{}";
+      } else if (batch) {
+        batchRequests.incrementAndGet();
+        JsonArrayBuilder signedBlobs = Json.createArrayBuilder();
+        for (JsonValue payload : request.getJsonArray("payloads")) {
+          signedBlobs.add(sign(((JsonString) payload).getString()));
+        }
+        response = Json.createObjectBuilder().add("signedBlobs", signedBlobs).build().toString();
+      } else {
+        response =
+            Json.createObjectBuilder()
+                .add("keyId", "abc")
+                .add("signedBlob", sign(request.getString("payload")))
+                .build()
+                .toString();
+      }
+      byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(status, bytes.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(bytes);
+      }
+    } catch (Exception e) {
+      exchange.sendResponseHeaders(500, -1);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static String readAll(InputStream in) throws java.io.IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[512];
+    int n;
+    while ((n = in.read(buffer)) > 0) out.write(buffer, 0, n);
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void sameSignatureAsLocalKey() throws Exception {
+    RemoteSigner signer =
+        new RemoteSigner(url("/signBlob"), null, "Bearer x", 2000, 1, new CircuitBreaker(3, 1000));
+    for (int i = 0; i < 5; i++) {
+      String message = "message-" + i;
+      Assert.assertEquals(
+          signer.sign(message), SigningCalloutBase.sign_RSA_SHA256(message, keyPair));
+    }
+    // sequential calls share one keep-alive connection
+    Assert.assertEquals(clientPorts.size(), 1, "connections");
+  }
+
+  @Test
+  public void concurrentCallsAreBatched() throws Exception {
+    delayMillis = 20;
+    RemoteSigner signer =
+        new RemoteSigner(
+            url("/signBlob"), url("/signBlobs"), null, 2000, 16, new CircuitBreaker(3, 1000));
+    ExecutorService executor = Executors.newFixedThreadPool(16);
+    try {
+      List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+      for (int i = 0; i < 64; i++) {
+        final String message = "message-" + i;
+        final byte[] expected = SigningCalloutBase.sign_RSA_SHA256(message, keyPair);
+        results.add(
+            executor.submit(() -> java.util.Arrays.equals(signer.sign(message), expected)));
+      }
+      for (Future<Boolean> result : results) {
+        Assert.assertTrue(result.get(), "signature mismatch");
+      }
+    } finally {
+      executor.shutdown();
+    }
+    Assert.assertTrue(batchRequests.get() > 0, "no batches");
+    Assert.assertTrue(requests.get() < 64, "requests: " + requests.get());
+  }
+
+  @Test
+  public void waitersDoNotSpin() throws Exception {
+    // while the slow endpoint holds the batches, the waiting callers block
+    delayMillis = 500;
+    RemoteSigner signer =
+        new RemoteSigner(
+            url("/signBlob"), url("/signBlobs"), null, 2000, 4, new CircuitBreaker(3, 1000));
+    ExecutorService executor = Executors.newFixedThreadPool(32);
+    try {
+      List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+      for (int i = 0; i < 32; i++) {
+        final String message = "message-" + i;
+        results.add(executor.submit(() -> signer.sign(message)));
+      }
+      for (Future<byte[]> result : results) {
+        Assert.assertNotNull(result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    // each caller drains the queue at most a few times, instead of looping
+    Assert.assertTrue(
+        signer.getSendQueuedCalls() <= 64, "sendQueued calls: " + signer.getSendQueuedCalls());
+  }
+
+  @Test
+  public void circuitBreakerOpens() throws Exception {
+    status = 503;
+    RemoteSigner signer =
+        new RemoteSigner(url("/signBlob"), null, null, 2000, 1, new CircuitBreaker(3, 60000));
+    for (int i = 0; i < 3; i++) {
+      try {
+        signer.sign("message");
+        Assert.fail("expected an exception");
+      } catch (IllegalStateException e) {
+        Assert.assertEquals(e.getMessage(), "the remote signer returned status 503");
+      }
+    }
+    try {
+      signer.sign("message");
+      Assert.fail("expected an exception");
+    } catch (IllegalStateException e) {
+      Assert.assertEquals(e.getMessage(), "the remote signer is unavailable");
+    }
+    Assert.assertEquals(requests.get(), 3);
+  }
+
+  @Test
+  public void timeout() throws Exception {
+    delayMillis = 1000;
+    RemoteSigner signer =
+        new RemoteSigner(url("/signBlob"), null, null, 100, 1, new CircuitBreaker(3, 1000));
+    try {
+      signer.sign("message");
+      Assert.fail("expected an exception");
+    } catch (IllegalStateException e) {
+      Assert.assertEquals(e.getMessage(), "the remote signer timed out");
+    }
+  }
+
+  @Test
+  public void v4CalloutWithRemoteSigner() throws Exception {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", serviceAccountKey1);
+    props.put("verb", "GET");
+    props.put("expires-in", "10m");
+    props.put("resource", "/example-bucket/remote.png");
+    SigningClock clock = SigningClock.fixed(Instant.parse("2019-10-24T22:54:41Z"));
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props, clock);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    String localUrl = msgCtxt.getVariable("sign_signedurl");
+
+    props.remove("service-account-key");
+    props.put("service-account-email", clientEmail);
+    props.put("remote-signer-url", url("/signBlob").toString());
+    callout = new V4SignedUrlCallout(props, clock);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    Assert.assertEquals(msgCtxt.getVariable("sign_signedurl"), localUrl);
+    Assert.assertEquals(requests.get(), 1);
+  }
+}
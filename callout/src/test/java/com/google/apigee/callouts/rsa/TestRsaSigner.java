@@ -0,0 +1,60 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts.rsa;
+
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestRsaSigner extends TestSignBase {
+
+  @Test
+  public void sameSignatureAsOneShotPath() throws Exception {
+    KeyPair keyPair = SigningCalloutBase.readKeyPair(privateKey2, null);
+    RsaSigner signer = new RsaSigner(keyPair.getPrivate());
+    String signingBase = "GET\n\n\n1571957681\n/foo/bar";
+    byte[] expected = SigningCalloutBase.sign_RSA_SHA256(signingBase, keyPair);
+    // twice, to exercise reuse of the per-thread signer
+    Assert.assertEquals(signer.sign(signingBase), expected);
+    Assert.assertEquals(signer.sign(signingBase), expected);
+  }
+
+  @Test
+  public void concurrentUse() throws Exception {
+    KeyPair keyPair = SigningCalloutBase.readKeyPair(privateKey2, null);
+    final RsaSigner signer = new RsaSigner(keyPair.getPrivate());
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+      for (int i = 0; i < 32; i++) {
+        final String signingBase = "message-" + i;
+        final byte[] expected = SigningCalloutBase.sign_RSA_SHA256(signingBase, keyPair);
+        results.add(
+            executor.submit(() -> java.util.Arrays.equals(signer.sign(signingBase), expected)));
+      }
+      for (Future<Boolean> result : results) {
+        Assert.assertTrue(result.get(), "signature mismatch");
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
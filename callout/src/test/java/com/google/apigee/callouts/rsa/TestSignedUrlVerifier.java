@@ -0,0 +1,208 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.callouts.rsa;
+
+import com.apigee.flow.execution.ExecutionResult;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.time.Instant;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestSignedUrlVerifier extends TestSignBase {
+  private static final Instant signedAt = Instant.parse("2021-06-01T12:00:00Z");
+  private static final String clientEmail =
+      "account-223456789@project-apigee.iam.gserviceaccount.com";
+
+  private String signV4(Map<String, String> extraProps) {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", serviceAccountKey1);
+    props.put("verb", "GET");
+    props.put("expires-in", "10m");
+    props.put("bucket", "my-bucket");
+    props.put("object", "folder/my object.txt");
+    props.putAll(extraProps);
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props, SigningClock.fixed(signedAt));
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    return msgCtxt.getVariable("sign_signedurl");
+  }
+
+  private ExecutionResult verifyV4(String url, Instant at, Map<String, String> extraProps) {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("url", url);
+    props.putAll(extraProps);
+    V4SignedUrlVerifier verifier = new V4SignedUrlVerifier(props, SigningClock.fixed(at));
+    return verifier.execute(msgCtxt, exeCtxt);
+  }
+
+  private static Map<String, String> withServiceAccountKey() {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", serviceAccountKey1);
+    return props;
+  }
+
+  // a self-signed certificate for the test key, as PEM
+  private static String certificatePem() throws Exception {
+    KeyPair keyPair =
+        SigningCalloutBase.readKeyPair(
+            SigningCalloutBase.parseServiceAccountKey(serviceAccountKey1).get("private_key"),
+            null);
+    X500Name name = new X500Name("CN=" + clientEmail);
+    X509CertificateHolder cert =
+        new JcaX509v3CertificateBuilder(
+                name,
+                BigInteger.ONE,
+                Date.from(signedAt.minusSeconds(86400)),
+                Date.from(signedAt.plusSeconds(86400 * 365)),
+                name,
+                keyPair.getPublic())
+            .build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate()));
+    StringWriter sw = new StringWriter();
+    try (JcaPEMWriter writer = new JcaPEMWriter(sw)) {
+      writer.writeObject(cert);
+    }
+    return sw.toString();
+  }
+
+  @Test
+  public void v4RoundTrip() throws Exception {
+    String url = signV4(new HashMap<String, String>());
+    ExecutionResult result = verifyV4(url, signedAt.plusSeconds(60), withServiceAccountKey());
+    Assert.assertEquals(
+        result, ExecutionResult.SUCCESS, "error: " + msgCtxt.getVariable("sign_error"));
+    Assert.assertEquals(msgCtxt.getVariable("sign_valid"), "true");
+    Assert.assertEquals(msgCtxt.getVariable("sign_client_email"), clientEmail);
+    Assert.assertEquals(
+        msgCtxt.getVariable("sign_expiration"), Long.toString(signedAt.getEpochSecond() + 600));
+  }
+
+  @Test
+  public void v4Tampered() throws Exception {
+    String url = signV4(new HashMap<String, String>()).replace("my-bucket", "other-bucket");
+    ExecutionResult result = verifyV4(url, signedAt.plusSeconds(60), withServiceAccountKey());
+    Assert.assertEquals(result, ExecutionResult.ABORT);
+    Assert.assertEquals(msgCtxt.getVariable("sign_valid"), "false");
+    Assert.assertEquals(msgCtxt.getVariable("sign_error"), "the signature is invalid");
+  }
+
+  @Test
+  public void v4Expired() throws Exception {
+    String url = signV4(new HashMap<String, String>());
+    ExecutionResult result = verifyV4(url, signedAt.plusSeconds(601), withServiceAccountKey());
+    Assert.assertEquals(result, ExecutionResult.ABORT);
+    Assert.assertEquals(msgCtxt.getVariable("sign_error"), "the url has expired");
+  }
+
+  @Test
+  public void v4SignedInTheFuture() throws Exception {
+    String url = signV4(new HashMap<String, String>());
+    // a small difference between the clocks is allowed
+    Assert.assertEquals(
+        verifyV4(url, signedAt.minusSeconds(60), withServiceAccountKey()),
+        ExecutionResult.SUCCESS);
+    ExecutionResult result = verifyV4(url, signedAt.minusSeconds(3600), withServiceAccountKey());
+    Assert.assertEquals(result, ExecutionResult.ABORT);
+    Assert.assertEquals(msgCtxt.getVariable("sign_error"), "the url was signed in the future");
+  }
+
+  @Test
+  public void v4AdditionalHeaders() throws Exception {
+    Map<String, String> headers = new HashMap<String, String>();
+    headers.put("addl-headers", "x-goog-meta-owner:alice");
+    String url = signV4(headers);
+
+    // without the header, the signed headers do not match
+    Assert.assertEquals(
+        verifyV4(url, signedAt.plusSeconds(60), withServiceAccountKey()), ExecutionResult.ABORT);
+    Assert.assertEquals(
+        msgCtxt.getVariable("sign_error"),
+        "the signed headers do not match X-Goog-SignedHeaders");
+
+    Map<String, String> props = withServiceAccountKey();
+    props.putAll(headers);
+    Assert.assertEquals(verifyV4(url, signedAt.plusSeconds(60), props), ExecutionResult.SUCCESS);
+  }
+
+  @Test
+  public void v4Certificates() throws Exception {
+    String url = signV4(new HashMap<String, String>());
+    String pem = certificatePem();
+    // the form in which Google publishes the certificates for a service account
+    String x509Metadata =
+        "{\"0bb2933e52e4dffa0958ba53ef9226c2a573add1\": \""
+            + pem.replace("\r", "").replace("\n", "\\n")
+            + "\"}";
+    for (String material : new String[] {pem, x509Metadata}) {
+      Map<String, String> props = new HashMap<String, String>();
+      props.put("public-keys", material);
+      props.put("service-account-email", clientEmail);
+      ExecutionResult result = verifyV4(url, signedAt.plusSeconds(60), props);
+      Assert.assertEquals(
+          result, ExecutionResult.SUCCESS, "error: " + msgCtxt.getVariable("sign_error"));
+    }
+    Assert.assertEquals(
+        VerificationKeys.forMaterial(clientEmail, pem),
+        VerificationKeys.forMaterial(clientEmail, pem),
+        "decoded keys are cached");
+  }
+
+  @Test
+  public void v4UnexpectedServiceAccount() throws Exception {
+    String url = signV4(new HashMap<String, String>());
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("public-keys", certificatePem());
+    props.put("service-account-email", "someone-else@project-apigee.iam.gserviceaccount.com");
+    Assert.assertEquals(verifyV4(url, signedAt.plusSeconds(60), props), ExecutionResult.ABORT);
+    Assert.assertEquals(
+        msgCtxt.getVariable("sign_error"),
+        "the url was not signed by the expected service account");
+  }
+
+  @Test
+  public void v2RoundTrip() throws Exception {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", serviceAccountKey1);
+    props.put("verb", "GET");
+    props.put("expires-in", "10m");
+    props.put("resource", "/my-bucket/my-object.txt");
+    V2SignedUrlCallout callout = new V2SignedUrlCallout(props, SigningClock.fixed(signedAt));
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    String url = msgCtxt.getVariable("sign_signedurl");
+
+    props = withServiceAccountKey();
+    props.put("url", url);
+    V2SignedUrlVerifier verifier =
+        new V2SignedUrlVerifier(props, SigningClock.fixed(signedAt.plusSeconds(60)));
+    Assert.assertEquals(
+        verifier.execute(msgCtxt, exeCtxt),
+        ExecutionResult.SUCCESS,
+        "error: " + msgCtxt.getVariable("sign_error"));
+    Assert.assertEquals(msgCtxt.getVariable("sign_client_email"), clientEmail);
+
+    props.put("verb", "PUT");
+    verifier = new V2SignedUrlVerifier(props, SigningClock.fixed(signedAt.plusSeconds(60)));
+    Assert.assertEquals(verifier.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+    Assert.assertEquals(msgCtxt.getVariable("sign_error"), "the signature is invalid");
+  }
+}
@@ -0,0 +1,61 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.callouts.rsa;
+
+import java.security.KeyPair;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestSignerBackend extends TestSignBase {
+
+  @Test
+  public void allBackendsProduceTheSameSignature() throws Exception {
+    KeyPair keyPair = SigningCalloutBase.readKeyPair(privateKey2, null);
+    String signingBase = "GET\n\n\n1571957681\n/foo/bar";
+    byte[] expected = SigningCalloutBase.sign_RSA_SHA256(signingBase, keyPair);
+    for (SignerBackend backend : SignerBackend.values()) {
+      Signer signer = backend.create(keyPair.getPrivate());
+      // twice, to exercise reuse of the per-thread state
+      Assert.assertEquals(signer.sign(signingBase), expected, backend.getName());
+      Assert.assertEquals(signer.sign(signingBase), expected, backend.getName());
+    }
+  }
+
+  @Test
+  public void calibrationPicksABackend() throws Exception {
+    KeyPair keyPair = SigningCalloutBase.readKeyPair(privateKey2, null);
+    Assert.assertNotNull(SignerBackend.calibrate(keyPair.getPrivate()));
+    // once calibrated, the choice is returned without waiting
+    SignerBackend fastest = SignerBackend.fastestNow(keyPair.getPrivate());
+    Assert.assertSame(SignerBackend.fastestNow(keyPair.getPrivate()), fastest);
+    Assert.assertSame(SignerBackend.fastest(keyPair.getPrivate()), fastest);
+  }
+
+  @Test
+  public void names() {
+    Assert.assertNull(SignerBackend.forName(null));
+    Assert.assertNull(SignerBackend.forName("auto"));
+    for (SignerBackend backend : SignerBackend.values()) {
+      Assert.assertSame(SignerBackend.forName(backend.getName()), backend);
+    }
+    try {
+      SignerBackend.forName("openssl");
+      Assert.fail("expected an exception");
+    } catch (IllegalStateException e) {
+      Assert.assertEquals(
+          e.getMessage(), "signer must be one of auto, bc-lightweight, jca-sun, jca-bc");
+    }
+  }
+}
@@ -0,0 +1,42 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts.rsa;
+
+import java.time.Instant;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestSigningClock {
+
+  @Test
+  public void fixedClock() throws Exception {
+    SigningClock clock = SigningClock.fixed(Instant.parse("2019-10-24T22:54:41.500Z"));
+    SigningClock.Tick tick = clock.now();
+    Assert.assertEquals(tick.getEpochSecond(), 1571957681L);
+    Assert.assertEquals(tick.getTimestamp(), "20191024T225441Z");
+    Assert.assertEquals(tick.getDateStamp(), "20191024");
+    Assert.assertEquals(tick.getCredentialScope(), "20191024/us/storage/goog4_request");
+    Assert.assertSame(clock.now(), tick, "tick not reused within the second");
+  }
+
+  @Test
+  public void window() throws Exception {
+    SigningClock clock = SigningClock.fixed(Instant.parse("2019-10-24T22:54:41Z"));
+    Assert.assertEquals(clock.now(300).getTimestamp(), "20191024T225000Z");
+    Assert.assertEquals(clock.now(3600).getTimestamp(), "20191024T220000Z");
+    Assert.assertEquals(clock.now(0).getTimestamp(), "20191024T225441Z");
+  }
+}
@@ -279,4 +279,95 @@ public class TestUrlSignV2Callout extends TestSignBase {
     System.out.printf("signedUrl: %s\n", signedUrl);
     System.out.printf("=========================================================\n");
   }
+
+  @Test
+  public void batchMatchesSingle() throws Exception {
+    StringBuilder batch = new StringBuilder("[");
+    for (int i = 0; i < 20; i++) {
+      if (i > 0) batch.append(",");
+      batch.append("\"cat-pics/tabby-" + i + ".png\"");
+    }
+    batch.append(",{\"resource\":\"/other-bucket/dog.png\"}]");
+
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("verb", "GET");
+    props.put("expiry", "1871957681");
+    props.put("bucket", "example-bucket");
+    props.put("batch", "{manifest}");
+    props.put("service-account-key", serviceAccountKey1);
+    msgCtxt.setVariable("manifest", batch.toString());
+
+    V2SignedUrlCallout callout = new V2SignedUrlCallout(props);
+    ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, "result not as expected");
+    Assert.assertNull(msgCtxt.getVariable("sign_error"), "errorOutput");
+    Assert.assertEquals(msgCtxt.getVariable("sign_batch_count"), "21");
+    String signedUrls = msgCtxt.getVariable("sign_signedurls");
+    Assert.assertNotNull(signedUrls, "signedurls");
+
+    // each URL in the batch must match the URL from a single execution
+    props.remove("batch");
+    props.put("resource", "/example-bucket/cat-pics/tabby-17.png");
+    V2SignedUrlCallout single = new V2SignedUrlCallout(props);
+    Assert.assertEquals(single.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    String expectedUrl = msgCtxt.getVariable("sign_signedurl");
+    Assert.assertTrue(signedUrls.contains("\"" + expectedUrl + "\""), "batch url");
+    Assert.assertTrue(signedUrls.contains("/other-bucket/dog.png?"), "explicit resource");
+  }
+
+  @Test
+  public void batchBadItem() throws Exception {
+    String expectedError = "each batch item must specify either resource or bucket + object";
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("verb", "GET");
+    props.put("expires-in", "1m");
+    props.put("batch", "[\"no-bucket-for-this.png\"]");
+    props.put("service-account-key", serviceAccountKey1);
+
+    V2SignedUrlCallout callout = new V2SignedUrlCallout(props);
+    ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.ABORT, "result not as expected");
+    Assert.assertEquals(msgCtxt.getVariable("sign_error"), expectedError, "error not as expected");
+  }
+
+  @Test
+  public void cacheWindow() throws Exception {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("verb", "GET");
+    props.put("expires-in", "2h");
+    props.put("cache-window", "1h");
+    props.put("cache-min-lifetime", "30m");
+    props.put("resource", "/example-bucket/cache-window-v2.png");
+    props.put("service-account-key", serviceAccountKey1);
+
+    V2SignedUrlCallout callout = new V2SignedUrlCallout(props);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    Assert.assertEquals(msgCtxt.getVariable("sign_cache_hit"), "false");
+    String firstUrl = msgCtxt.getVariable("sign_signedurl");
+    long expiration = Long.parseLong(msgCtxt.getVariable("sign_expiration"));
+    Assert.assertEquals(expiration % 3600, 0L, "expiry not aligned to the window");
+
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    Assert.assertEquals(msgCtxt.getVariable("sign_cache_hit"), "true");
+    Assert.assertEquals(msgCtxt.getVariable("sign_signedurl"), firstUrl);
+  }
+
+  @Test
+  public void cacheWindowLongerThanExpiry() throws Exception {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("verb", "GET");
+    props.put("expires-in", "{my_expires_in}");
+    props.put("cache-window", "1h");
+    props.put("cache-min-lifetime", "30m");
+    props.put("resource", "/example-bucket/cache-window-short-v2.png");
+    props.put("service-account-key", serviceAccountKey1);
+    msgCtxt.setVariable("my_expires_in", "80m");
+
+    SigningClock clock = SigningClock.fixed(java.time.Instant.parse("2019-10-24T10:40:00Z"));
+    V2SignedUrlCallout callout = new V2SignedUrlCallout(props, clock);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+    Assert.assertEquals(
+        msgCtxt.getVariable("sign_error"),
+        "expires-in must be at least cache-window plus cache-min-lifetime");
+  }
 }
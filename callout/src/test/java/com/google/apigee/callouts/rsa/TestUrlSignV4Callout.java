@@ -16,8 +16,18 @@
 package com.google.apigee.callouts.rsa;
 
 import com.apigee.flow.execution.ExecutionResult;
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
 import java.util.HashMap;
 import java.util.Map;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.util.encoders.Hex;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -263,4 +273,473 @@ public class TestUrlSignV4Callout extends TestSignBase {
     System.out.printf("duration: %s\n", duration);
     System.out.printf("=========================================================\n");
   }
+
+  @Test
+  public void batch() throws Exception {
+    StringBuilder batch = new StringBuilder("[");
+    for (int i = 0; i < 40; i++) {
+      if (i > 0) batch.append(",");
+      batch.append("{\"object\":\"cat-pics/tabby-" + i + ".png\"}");
+    }
+    batch.append("]");
+
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", serviceAccountKey1);
+    props.put("verb", "GET");
+    props.put("expires-in", "10m");
+    props.put("bucket", "example-bucket");
+    props.put("batch", "{manifest}");
+    msgCtxt.setVariable("manifest", batch.toString());
+
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props);
+    ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, "result not as expected");
+    Assert.assertNull(msgCtxt.getVariable("sign_error"), "errorOutput");
+    Assert.assertEquals(msgCtxt.getVariable("sign_batch_count"), "40");
+
+    javax.json.JsonArray signedUrls =
+        javax.json.Json.createReader(
+                new java.io.StringReader((String) msgCtxt.getVariable("sign_signedurls")))
+            .readArray();
+    Assert.assertEquals(signedUrls.size(), 40);
+    for (int i = 0; i < 40; i++) {
+      javax.json.JsonObject item = signedUrls.getJsonObject(i);
+      String resource = "/example-bucket/cat-pics/tabby-" + i + ".png";
+      Assert.assertEquals(item.getString("resource"), resource);
+      Assert.assertTrue(
+          item.getString("signedurl")
+              .startsWith("https://storage.googleapis.com" + resource + "?X-Goog-Algorithm="),
+          "signedurl " + i);
+      Assert.assertTrue(item.getString("signedurl").contains("&X-Goog-Signature="));
+    }
+  }
+
+  @Test
+  public void batchNotAnArray() throws Exception {
+    String expectedError = "the batch is not a JSON array";
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", serviceAccountKey1);
+    props.put("verb", "GET");
+    props.put("expires-in", "10m");
+    props.put("batch", "{\"object\": \"foo\"}");
+
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props);
+    ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.ABORT, "result not as expected");
+    Assert.assertEquals(msgCtxt.getVariable("sign_error"), expectedError, "error not as expected");
+  }
+
+  @Test
+  public void cacheWindow() throws Exception {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", serviceAccountKey1);
+    props.put("verb", "GET");
+    props.put("expires-in", "2h");
+    props.put("cache-window", "1h");
+    props.put("bucket", "example-bucket");
+    props.put("object", "cache-window-v4.png");
+
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props);
+    ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, "result not as expected");
+    Assert.assertEquals(msgCtxt.getVariable("sign_cache_hit"), "false");
+    String firstUrl = (String) msgCtxt.getVariable("sign_signedurl");
+    String date = (String) msgCtxt.getVariable("sign_now_formatted");
+    Assert.assertTrue(date.endsWith("0000Z"), "signing time not rounded: " + date);
+
+    actualResult = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, "result not as expected");
+    Assert.assertEquals(msgCtxt.getVariable("sign_cache_hit"), "true");
+    Assert.assertEquals(msgCtxt.getVariable("sign_signedurl"), firstUrl);
+  }
+
+  @Test
+  public void cacheWindowFixedClock() throws Exception {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", serviceAccountKey1);
+    props.put("verb", "GET");
+    props.put("expires-in", "2h");
+    props.put("cache-window", "1h");
+    props.put("resource", "/example-bucket/cache-window-fixed-clock.png");
+
+    SigningClock clock = SigningClock.fixed(java.time.Instant.parse("2019-10-24T10:40:00Z"));
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props, clock);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    Assert.assertEquals(msgCtxt.getVariable("sign_cache_hit"), "false");
+    Assert.assertEquals(msgCtxt.getVariable("sign_now_formatted"), "20191024T100000Z");
+    String firstUrl = msgCtxt.getVariable("sign_signedurl");
+
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    Assert.assertEquals(msgCtxt.getVariable("sign_cache_hit"), "true");
+    Assert.assertEquals(msgCtxt.getVariable("sign_signedurl"), firstUrl);
+  }
+
+  @Test
+  public void cacheWindowOtherKeySameEmail() throws Exception {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", serviceAccountKey1);
+    props.put("verb", "GET");
+    props.put("expires-in", "2h");
+    props.put("cache-window", "1h");
+    props.put("resource", "/example-bucket/cache-window-other-key.png");
+    SigningClock clock = SigningClock.fixed(java.time.Instant.parse("2019-10-24T10:40:00Z"));
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props, clock);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    String firstUrl = msgCtxt.getVariable("sign_signedurl");
+
+    // the same, public, email with another key must not get the cached signature
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    StringWriter pem = new StringWriter();
+    try (JcaPEMWriter writer = new JcaPEMWriter(pem)) {
+      writer.writeObject(generator.generateKeyPair().getPrivate());
+    }
+    props.remove("service-account-key");
+    props.put("private-key", pem.toString());
+    props.put(
+        "service-account-email", "account-223456789@project-apigee.iam.gserviceaccount.com");
+    callout = new V4SignedUrlCallout(props, clock);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    Assert.assertEquals(msgCtxt.getVariable("sign_cache_hit"), "false");
+    Assert.assertNotEquals(msgCtxt.getVariable("sign_signedurl"), firstUrl);
+  }
+
+  @Test
+  public void cacheWindowLongerThanExpiry() throws Exception {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", serviceAccountKey1);
+    props.put("verb", "GET");
+    props.put("expires-in", "5m");
+    props.put("cache-window", "1h");
+    props.put("resource", "/example-bucket/cache-window-short.png");
+    SigningClock clock = SigningClock.fixed(java.time.Instant.parse("2019-10-24T10:40:00Z"));
+
+    // with literal values, the configuration is rejected up front
+    try {
+      new V4SignedUrlCallout(props, clock);
+      Assert.fail("expected an exception");
+    } catch (IllegalStateException e) {
+      Assert.assertEquals(
+          e.getMessage(), "expires-in must be at least cache-window plus cache-min-lifetime");
+    }
+
+    // with a variable, when the callout executes; no expired URL is issued
+    props.put("expires-in", "{my_expires_in}");
+    msgCtxt.setVariable("my_expires_in", "5m");
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props, clock);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+    Assert.assertEquals(
+        msgCtxt.getVariable("sign_error"),
+        "expires-in must be at least cache-window plus cache-min-lifetime");
+    Assert.assertNull(msgCtxt.getVariable("sign_signedurl"));
+  }
+
+  @Test
+  public void fixedClock() throws Exception {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", serviceAccountKey1);
+    props.put("verb", "GET");
+    props.put("expires-in", "10m");
+    props.put("resource", "/example-bucket/fixed-clock.png");
+
+    SigningClock clock = SigningClock.fixed(java.time.Instant.parse("2019-10-24T22:54:41Z"));
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props, clock);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    String signedUrl = msgCtxt.getVariable("sign_signedurl");
+    Assert.assertEquals(msgCtxt.getVariable("sign_now_formatted"), "20191024T225441Z");
+    Assert.assertEquals(msgCtxt.getVariable("sign_expiration"), "1571958281");
+    Assert.assertEquals(msgCtxt.getVariable("sign_expiration_ISO"), "2019-10-24T23:04:41Z");
+    Assert.assertTrue(signedUrl.contains("&X-Goog-Date=20191024T225441Z&"), signedUrl);
+    Assert.assertTrue(
+        signedUrl.contains("%2F20191024%2Fus%2Fstorage%2Fgoog4_request&"), "credential scope");
+
+    // the same clock, key and request always produce the same URL
+    V4SignedUrlCallout again = new V4SignedUrlCallout(props, clock);
+    Assert.assertEquals(again.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    Assert.assertEquals(msgCtxt.getVariable("sign_signedurl"), signedUrl);
+  }
+
+  @Test
+  public void signerBackends() throws Exception {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", serviceAccountKey1);
+    props.put("verb", "GET");
+    props.put("expires-in", "10m");
+    props.put("resource", "/example-bucket/signer.png");
+
+    SigningClock clock = SigningClock.fixed(java.time.Instant.parse("2019-10-24T22:54:41Z"));
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props, clock);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    String signedUrl = msgCtxt.getVariable("sign_signedurl");
+    for (String signer : new String[] {"bc-lightweight", "jca-sun", "jca-bc"}) {
+      props.put("signer", signer);
+      callout = new V4SignedUrlCallout(props, clock);
+      Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS, signer);
+      Assert.assertEquals(msgCtxt.getVariable("sign_signedurl"), signedUrl, signer);
+    }
+
+    props.put("signer", "openssl");
+    callout = new V4SignedUrlCallout(props, clock);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+    Assert.assertEquals(
+        msgCtxt.getVariable("sign_error"),
+        "signer must be one of auto, bc-lightweight, jca-sun, jca-bc");
+  }
+
+  @Test
+  public void hmacMode() throws Exception {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("hmac-access-id", "GOOG1EXAMPLEACCESSID");
+    props.put("hmac-secret", "{my_hmac_secret}");
+    props.put("verb", "GET");
+    props.put("expires-in", "10m");
+    props.put("resource", "/example-bucket/hmac.png");
+    msgCtxt.setVariable("my_hmac_secret", "bGoa+V7g/yqDXvKRqq+JTFn4uQZbPiQJo4pf9RzJ");
+
+    SigningClock clock = SigningClock.fixed(java.time.Instant.parse("2019-10-24T22:54:41Z"));
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props, clock);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    String signedUrl = msgCtxt.getVariable("sign_signedurl");
+    Assert.assertTrue(signedUrl.contains("X-Goog-Algorithm=GOOG4-HMAC-SHA256&"), signedUrl);
+    Assert.assertTrue(
+        signedUrl.contains(
+            "X-Goog-Credential=GOOG1EXAMPLEACCESSID%2F20191024%2Fus%2Fstorage%2Fgoog4_request&"),
+        signedUrl);
+    String stringToSign = msgCtxt.getVariable("sign_string_to_sign");
+    Assert.assertTrue(stringToSign.startsWith("GOOG4-HMAC-SHA256\n"), stringToSign);
+    byte[] expected =
+        TestHmacSigner.expectedSignature(
+            "bGoa+V7g/yqDXvKRqq+JTFn4uQZbPiQJo4pf9RzJ", "20191024", stringToSign);
+    Assert.assertEquals(msgCtxt.getVariable("sign_signature"), Hex.toHexString(expected));
+
+    props.remove("hmac-access-id");
+    callout = new V4SignedUrlCallout(props, clock);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+  }
+
+  @Test
+  public void hmacCacheNeedsTheSecret() throws Exception {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("hmac-access-id", "GOOG1EXAMPLEACCESSID");
+    props.put("hmac-secret", "bGoa+V7g/yqDXvKRqq+JTFn4uQZbPiQJo4pf9RzJ");
+    props.put("verb", "GET");
+    props.put("expires-in", "2h");
+    props.put("cache-window", "1h");
+    props.put("resource", "/example-bucket/hmac-cache.png");
+    SigningClock clock = SigningClock.fixed(java.time.Instant.parse("2019-10-24T10:40:00Z"));
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props, clock);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    String firstUrl = msgCtxt.getVariable("sign_signedurl");
+
+    // the access id is in every URL; with another secret, the cache must miss
+    props.put("hmac-secret", "not-the-secret");
+    callout = new V4SignedUrlCallout(props, clock);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    Assert.assertEquals(msgCtxt.getVariable("sign_cache_hit"), "false");
+    Assert.assertNotEquals(msgCtxt.getVariable("sign_signedurl"), firstUrl);
+  }
+
+  @Test
+  public void timingAndMetrics() throws Exception {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", serviceAccountKey1);
+    props.put("verb", "GET");
+    props.put("expires-in", "10m");
+    props.put("resource", "/example-bucket/timing.png");
+    props.put("timing", "true");
+    props.put("metrics", "true");
+
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    for (String phase : new String[] {"key", "properties", "canonicalize", "sign", "assemble"}) {
+      String micros = msgCtxt.getVariable("sign_timing_" + phase);
+      Assert.assertNotNull(micros, phase);
+      Assert.assertTrue(Long.parseLong(micros) >= 0L, phase);
+    }
+    String metrics = msgCtxt.getVariable("sign_metrics");
+    Assert.assertTrue(
+        metrics.contains(
+            "signedurl_phase_seconds_count{callout=\"V4SignedUrlCallout\",phase=\"total\"}"),
+        metrics);
+
+    props.remove("resource");
+    callout = new V4SignedUrlCallout(props);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+    metrics = msgCtxt.getVariable("sign_metrics");
+    Assert.assertTrue(
+        metrics.contains(
+            "signedurl_errors_total{callout=\"V4SignedUrlCallout\","
+                + "type=\"IllegalStateException\"}"),
+        metrics);
+  }
+
+  @Test
+  public void minimalOutput() throws Exception {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", serviceAccountKey1);
+    props.put("verb", "GET");
+    props.put("expires-in", "10m");
+    props.put("resource", "/example-bucket/minimal.png");
+    props.put("output", "minimal");
+
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    Assert.assertNotNull(msgCtxt.getVariable("sign_signedurl"));
+    Assert.assertTrue(
+        ((String) msgCtxt.getVariable("sign_signedurl")).contains("X-Goog-Expires=600&"));
+    Assert.assertNull(msgCtxt.getVariable("sign_duration"));
+    Assert.assertNull(msgCtxt.getVariable("sign_string_to_sign"));
+    Assert.assertNull(msgCtxt.getVariable("sign_canonical_query_string"));
+    Assert.assertNull(msgCtxt.getVariable("sign_signature"));
+    Assert.assertNull(msgCtxt.getVariable("sign_result"));
+  }
+
+  private JsonObject readResult() {
+    try (JsonReader reader =
+        Json.createReader(new StringReader((String) msgCtxt.getVariable("sign_result")))) {
+      return reader.readObject();
+    }
+  }
+
+  @Test
+  public void jsonOutput() throws Exception {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", serviceAccountKey1);
+    props.put("verb", "GET");
+    props.put("expires-in", "10m");
+    props.put("resource", "/example-bucket/json.png");
+    props.put("output-format", "json");
+
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    Assert.assertNull(msgCtxt.getVariable("sign_signedurl"));
+    JsonObject result = readResult();
+    Assert.assertTrue(result.getString("signedurl").startsWith("https://"));
+    Assert.assertEquals(result.getString("duration"), "600");
+    Assert.assertEquals(result.getString("resource"), "/example-bucket/json.png");
+    Assert.assertFalse(result.containsKey("canonical_request"));
+
+    props.put("batch", "[\"/example-bucket/a.png\", \"/example-bucket/b.png\"]");
+    props.put("output", "minimal");
+    callout = new V4SignedUrlCallout(props);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    result = readResult();
+    Assert.assertEquals(result.size(), 1);
+    Assert.assertEquals(result.getJsonArray("signedurls").size(), 2);
+  }
+
+  @Test
+  public void badOutputLevel() throws Exception {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", serviceAccountKey1);
+    props.put("verb", "GET");
+    props.put("resource", "/example-bucket/bad.png");
+    props.put("output", "verbose");
+
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+    Assert.assertEquals(
+        msgCtxt.getVariable("sign_error"), "output must be one of minimal, standard, debug");
+  }
+
+  @Test
+  public void payloadFromContent() throws Exception {
+    byte[] content = new byte[1024 * 1024 + 17];
+    for (int i = 0; i < content.length; i++) content[i] = (byte) (i * 31);
+    String expectedHash = Hex.toHexString(MessageDigest.getInstance("SHA-256").digest(content));
+    SigningClock clock = SigningClock.fixed(java.time.Instant.parse("2019-10-24T22:54:41Z"));
+
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", serviceAccountKey1);
+    props.put("verb", "PUT");
+    props.put("expires-in", "10m");
+    props.put("resource", "/example-bucket/upload.bin");
+    props.put("payload-from-content", "true");
+    messageContentStream = new ByteArrayInputStream(content);
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props, clock);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    Assert.assertEquals(msgCtxt.getVariable("sign_content_sha256"), expectedHash);
+    String streamedUrl = msgCtxt.getVariable("sign_signedurl");
+
+    // the same as signing with the hash as the payload property
+    props.remove("payload-from-content");
+    props.put("payload", expectedHash);
+    callout = new V4SignedUrlCallout(props, clock);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    Assert.assertEquals(msgCtxt.getVariable("sign_signedurl"), streamedUrl);
+  }
+
+  @Test
+  public void contentSha256Header() throws Exception {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", serviceAccountKey1);
+    props.put("verb", "PUT");
+    props.put("expires-in", "10m");
+    props.put("resource", "/example-bucket/upload.txt");
+    props.put("payload-from-content", "true");
+    props.put("content-sha256-header", "true");
+    messageContentStream = new ByteArrayInputStream("hello".getBytes("UTF-8"));
+
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    String signedUrl = msgCtxt.getVariable("sign_signedurl");
+    Assert.assertTrue(
+        signedUrl.contains("&X-Goog-SignedHeaders=host%3Bx-goog-content-sha256&"), signedUrl);
+    Assert.assertEquals(
+        msgCtxt.getVariable("sign_content_sha256"),
+        "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824");
+  }
+
+  @Test
+  public void contentSha256HeaderFlagsIgnoreCase() throws Exception {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", serviceAccountKey1);
+    props.put("verb", "PUT");
+    props.put("expires-in", "10m");
+    props.put("resource", "/example-bucket/upload.txt");
+    props.put("payload-from-content", "TRUE");
+    props.put("content-sha256-header", "True");
+    messageContentStream = new ByteArrayInputStream("hello".getBytes("UTF-8"));
+
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    String signedUrl = msgCtxt.getVariable("sign_signedurl");
+    Assert.assertTrue(
+        signedUrl.contains("&X-Goog-SignedHeaders=host%3Bx-goog-content-sha256&"), signedUrl);
+    Assert.assertEquals(
+        msgCtxt.getVariable("sign_content_sha256"),
+        "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824");
+  }
+
+  @Test
+  public void contentSha256HeaderNeedsPayloadFromContent() throws Exception {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", serviceAccountKey1);
+    props.put("verb", "PUT");
+    props.put("expires-in", "10m");
+    props.put("resource", "/example-bucket/upload.txt");
+    props.put("payload", "UNSIGNED-PAYLOAD");
+    props.put("content-sha256-header", "true");
+
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+    Assert.assertEquals(
+        msgCtxt.getVariable("sign_error"), "content-sha256-header requires payload-from-content");
+  }
+
+  @Test
+  public void payloadAndPayloadFromContent() throws Exception {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", serviceAccountKey1);
+    props.put("verb", "PUT");
+    props.put("expires-in", "10m");
+    props.put("resource", "/example-bucket/upload.txt");
+    props.put("payload", "UNSIGNED-PAYLOAD");
+    props.put("payload-from-content", "true");
+
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props);
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.ABORT);
+    Assert.assertEquals(
+        msgCtxt.getVariable("sign_error"), "specify either payload or payload-from-content");
+  }
 }
@@ -0,0 +1,86 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.callouts.rsa;
+
+import com.apigee.flow.execution.ExecutionResult;
+import java.util.HashMap;
+import java.util.Map;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestWarmup extends TestSignBase {
+
+  private static Map<String, String> props() {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("service-account-key", serviceAccountKey1);
+    props.put("verb", "GET");
+    props.put("expires-in", "10m");
+    props.put("resource", "/my-bucket/my-object.txt");
+    props.put("warmup", "true");
+    props.put("warmup-iterations", "20");
+    return props;
+  }
+
+  @Test
+  public void warmupPreloadsKeyAndReportsTime() throws Exception {
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props());
+    Warmup warmup = callout.getWarmup();
+    Assert.assertNotNull(warmup);
+    Assert.assertTrue(warmup.await(60000L), "warm-up did not finish");
+    Assert.assertNull(warmup.getFailure());
+    Assert.assertTrue(warmup.getElapsedMillis() >= 0);
+
+    // the same configuration shares one warm-up, and its decoded key
+    V4SignedUrlCallout another = new V4SignedUrlCallout(props());
+    Assert.assertSame(another.getWarmup(), warmup);
+    Assert.assertSame(
+        callout.getSigningKey(msgCtxt),
+        SigningCalloutBase.cachedServiceAccountKey(serviceAccountKey1.trim(), null));
+
+    ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(result, ExecutionResult.SUCCESS);
+    Assert.assertEquals(
+        msgCtxt.getVariable("sign_warmup_millis"), Long.toString(warmup.getElapsedMillis()));
+    Assert.assertNull(msgCtxt.getVariable("sign_warmup_error"));
+  }
+
+  @Test
+  public void noWarmupByDefault() throws Exception {
+    Map<String, String> props = props();
+    props.remove("warmup");
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props);
+    Assert.assertNull(callout.getWarmup());
+    Assert.assertEquals(callout.execute(msgCtxt, exeCtxt), ExecutionResult.SUCCESS);
+    Assert.assertNull(msgCtxt.getVariable("sign_warmup_millis"));
+  }
+
+  @Test
+  public void badIterations() throws Exception {
+    Map<String, String> props = props();
+    props.put("warmup-iterations", "many");
+    // a bad warm-up setting does not stop the callout from being created
+    V4SignedUrlCallout callout = new V4SignedUrlCallout(props);
+    Warmup warmup = callout.getWarmup();
+    Assert.assertTrue(warmup.isDone());
+    Assert.assertEquals(
+        warmup.getFailure().getMessage(), "warmup-iterations must be a non-negative integer");
+
+    ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(result, ExecutionResult.SUCCESS);
+    Assert.assertEquals(
+        msgCtxt.getVariable("sign_warmup_error"),
+        "java.lang.IllegalStateException: warmup-iterations must be a non-negative integer");
+  }
+}
@@ -0,0 +1,44 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.encoding;
+
+import java.net.URLEncoder;
+import java.util.Random;
+import org.bouncycastle.util.encoders.Base64;
+import org.bouncycastle.util.encoders.Hex;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestBinaryEncoder {
+
+  @Test
+  public void matchesReferenceEncodings() throws Exception {
+    Random random = new Random(20210311L);
+    for (int length = 0; length < 300; length++) {
+      byte[] data = new byte[length];
+      random.nextBytes(data);
+
+      Assert.assertEquals(BinaryEncoder.toHex(data), Hex.toHexString(data));
+
+      String expected = URLEncoder.encode(Base64.toBase64String(data), "UTF-8");
+      Assert.assertEquals(BinaryEncoder.base64QueryLength(data), expected.length());
+      char[] out = new char[expected.length() + 1];
+      int end = BinaryEncoder.encodeBase64Query(data, out, 1);
+      Assert.assertEquals(end, out.length);
+      Assert.assertEquals(new String(out, 1, expected.length()), expected);
+    }
+  }
+}
@@ -0,0 +1,68 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.encoding;
+
+import java.net.URLEncoder;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestPercentEncoder {
+
+  private static String urlEncode(String s) throws Exception {
+    return URLEncoder.encode(s, "UTF-8")
+        .replaceAll("\\+", "%20")
+        .replaceAll("\\*", "%2A")
+        .replaceAll("%7E", "~");
+  }
+
+  @Test
+  public void queryEncoding() throws Exception {
+    String[] inputs = {
+      "",
+      "plain-value_1.2~3",
+      "a b&c=d/e?f",
+      "account-223456789@project-apigee.iam.gserviceaccount.com/20191024/us/storage/goog4_request",
+      "star*tilde~plus+",
+      "café über 日本語",
+      "emoji 😀",
+      "GkXH/8dTP1RwzQ8Aev+cN6N3ckc5uO3BZMvTdzAmg6+1QMBXyNrwLjl8yEzi0h7/3uDz1G/ZhnlLQqWwt6iLqQ=="
+    };
+    for (String input : inputs) {
+      String expected = urlEncode(input);
+      Assert.assertEquals(PercentEncoder.QUERY.encode(input), expected, input);
+      Assert.assertEquals(
+          PercentEncoder.QUERY.encode(input, new StringBuilder("x")).toString(), "x" + expected);
+      Assert.assertEquals(PercentEncoder.QUERY.encodedLength(input), expected.length(), input);
+      char[] out = new char[expected.length() + 2];
+      int end = PercentEncoder.QUERY.encode(input, out, 1);
+      Assert.assertEquals(end, expected.length() + 1);
+      Assert.assertEquals(new String(out, 1, expected.length()), expected);
+    }
+  }
+
+  @Test
+  public void pathEncoding() throws Exception {
+    Assert.assertEquals(
+        PercentEncoder.PATH.encode("cat pics/tabby #1.jpeg"), "cat%20pics/tabby%20%231.jpeg");
+    Assert.assertEquals(PercentEncoder.QUERY.encode("a/b"), "a%2Fb");
+  }
+
+  @Test
+  public void unchangedStringIsReturnedAsIs() throws Exception {
+    String input = "no-escaping-needed";
+    Assert.assertSame(PercentEncoder.QUERY.encode(input), input);
+  }
+}
@@ -0,0 +1,114 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.json;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestJavaxJson {
+
+  public static class Item {
+    private String name;
+    private int count;
+    private List<Long> sizes;
+    private Map<String, String> labels;
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+
+    public int getCount() {
+      return count;
+    }
+
+    public void setCount(int count) {
+      this.count = count;
+    }
+
+    public List<Long> getSizes() {
+      return sizes;
+    }
+
+    public void setSizes(List<Long> sizes) {
+      this.sizes = sizes;
+    }
+
+    public Map<String, String> getLabels() {
+      return labels;
+    }
+
+    public void setLabels(Map<String, String> labels) {
+      this.labels = labels;
+    }
+  }
+
+  @Test
+  public void untyped() throws Exception {
+    Map<?, ?> map =
+        JavaxJson.fromJson(
+            "{\"a\": \"x\", \"b\": 2, \"c\": [true, null, {\"d\": 1.5}], \"e\": {}}", Map.class);
+    Assert.assertEquals(map.get("a"), "x");
+    Assert.assertEquals(map.get("b"), 2.0d);
+    List<?> c = (List<?>) map.get("c");
+    Assert.assertEquals(c.get(0), Boolean.TRUE);
+    Assert.assertNull(c.get(1));
+    Assert.assertEquals(((Map<?, ?>) c.get(2)).get("d"), 1.5d);
+    Assert.assertTrue(((Map<?, ?>) map.get("e")).isEmpty());
+  }
+
+  @Test
+  public void bean() throws Exception {
+    String json =
+        "{\"name\": \"tabby\", \"ignored\": {\"deep\": [1, [2]]}, \"count\": 3,"
+            + " \"sizes\": [10, 20], \"extra\": [{}], \"labels\": {\"k\": \"v\"}}";
+    // twice, to use the cached metadata
+    for (int i = 0; i < 2; i++) {
+      Item item = JavaxJson.fromJson(json, Item.class);
+      Assert.assertEquals(item.getName(), "tabby");
+      Assert.assertEquals(item.getCount(), 3);
+      Assert.assertEquals(item.getSizes(), Arrays.asList(10L, 20L));
+      Assert.assertEquals(item.getLabels().get("k"), "v");
+    }
+  }
+
+  @Test
+  public void array() throws Exception {
+    String[] names = JavaxJson.fromJson("[\"a\", \"b\"]", String[].class);
+    Assert.assertEquals(names, new String[] {"a", "b"});
+  }
+
+  @Test(expectedExceptions = RuntimeException.class)
+  public void objectIsNotAList() throws Exception {
+    JavaxJson.fromJson("{\"object\": \"foo\"}", List.class);
+  }
+
+  @Test(expectedExceptions = RuntimeException.class)
+  public void trailingContent() throws Exception {
+    JavaxJson.fromJson("[1] [2]", List.class);
+  }
+
+  @Test(expectedExceptions = RuntimeException.class)
+  public void notJson() throws Exception {
+    JavaxJson.fromJson("not-json", Map.class);
+  }
+}
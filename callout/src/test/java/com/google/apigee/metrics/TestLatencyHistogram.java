@@ -0,0 +1,52 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.metrics;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestLatencyHistogram {
+
+  @Test
+  public void bucketsCoverEveryValue() throws Exception {
+    long[] values = {0, 1, 7, 8, 9, 15, 16, 17, 1000, 123456789L, Long.MAX_VALUE};
+    for (long value : values) {
+      int index = LatencyHistogram.bucketIndex(value);
+      long upper = LatencyHistogram.bucketUpperBound(index);
+      Assert.assertTrue(upper >= value, "upper bound below value " + value);
+      if (index > 0) {
+        long previous = LatencyHistogram.bucketUpperBound(index - 1);
+        Assert.assertTrue(previous < value, "value not in its bucket " + value);
+      }
+      Assert.assertTrue(upper - value <= value / 8, "bucket too wide for " + value);
+    }
+  }
+
+  @Test
+  public void quantiles() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram();
+    Assert.assertEquals(histogram.getValueAtQuantile(0.5), 0L);
+    for (long i = 1; i <= 1000; i++) {
+      histogram.record(i * 1000);
+    }
+    Assert.assertEquals(histogram.getCount(), 1000L);
+    Assert.assertEquals(histogram.getSum(), 500500000L);
+    long median = histogram.getValueAtQuantile(0.5);
+    Assert.assertTrue(median >= 500000 && median <= 500000 * 9 / 8, "median " + median);
+    long p99 = histogram.getValueAtQuantile(0.99);
+    Assert.assertTrue(p99 >= 990000 && p99 <= 990000 * 9 / 8, "p99 " + p99);
+  }
+}
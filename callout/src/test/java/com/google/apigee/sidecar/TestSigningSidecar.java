@@ -0,0 +1,145 @@
+// Copyright 2018-2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.sidecar;
+
+import com.google.apigee.callouts.rsa.TestSignBase;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class TestSigningSidecar extends TestSignBase {
+  private SigningSidecar sidecar;
+  private int port;
+
+  @BeforeClass
+  public void startSidecar() throws Exception {
+    SigningSidecar.Config config = new SigningSidecar.Config();
+    config.port = 0;
+    config.threads = 2;
+    config.properties.put("service-account-key", serviceAccountKey1);
+    config.properties.put("output", "minimal");
+    sidecar = new SigningSidecar(config);
+    port = sidecar.start();
+  }
+
+  @AfterClass
+  public void stopSidecar() {
+    sidecar.stop();
+  }
+
+  private static final class Response {
+    int status;
+    String body;
+
+    JsonObject json() {
+      try (JsonReader reader = Json.createReader(new StringReader(body))) {
+        return reader.readObject();
+      }
+    }
+  }
+
+  private Response call(String method, String path, String body) throws Exception {
+    HttpURLConnection connection =
+        (HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection();
+    connection.setRequestMethod(method);
+    if (body != null) {
+      connection.setDoOutput(true);
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(body.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    Response response = new Response();
+    response.status = connection.getResponseCode();
+    InputStream in =
+        (response.status < 400) ? connection.getInputStream() : connection.getErrorStream();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int n;
+    while ((n = in.read(buffer)) != -1) bytes.write(buffer, 0, n);
+    in.close();
+    response.body = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    return response;
+  }
+
+  @Test
+  public void signV4() throws Exception {
+    Response response =
+        call(
+            "POST",
+            "/v4/sign",
+            "{\"verb\": \"GET\", \"bucket\": \"my-bucket\", \"object\": \"a b.txt\","
+                + " \"expires-in\": \"10m\"}");
+    Assert.assertEquals(response.status, 200, response.body);
+    String url = response.json().getString("signedurl");
+    Assert.assertTrue(
+        url.startsWith("https://storage.googleapis.com/my-bucket/a%20b.txt?X-Goog-Algorithm="),
+        url);
+  }
+
+  @Test
+  public void signV2Batch() throws Exception {
+    Response response =
+        call(
+            "POST",
+            "/v2/sign",
+            "{\"verb\": \"GET\", \"bucket\": \"my-bucket\", \"expires-in\": \"10m\","
+                + " \"batch\": [\"one.txt\", \"two.txt\"]}");
+    Assert.assertEquals(response.status, 200, response.body);
+    Assert.assertEquals(response.json().getJsonArray("signedurls").size(), 2);
+  }
+
+  @Test
+  public void badRequests() throws Exception {
+    Response response = call("POST", "/v4/sign", "{\"bucket\": \"b\", \"object\": \"o\"}");
+    Assert.assertEquals(response.status, 400);
+    Assert.assertEquals(
+        response.json().getString("error"), "verb resolves to an empty string");
+
+    response = call("POST", "/v4/sign", "{\"service-account-key\": \"{}\"}");
+    Assert.assertEquals(response.status, 400);
+    Assert.assertEquals(
+        response.json().getString("error"), "a request cannot set service-account-key");
+
+    response = call("POST", "/v4/sign", "not json");
+    Assert.assertEquals(response.status, 400);
+
+    response = call("GET", "/v4/sign", null);
+    Assert.assertEquals(response.status, 405);
+  }
+
+  @Test(dependsOnMethods = {"signV4", "badRequests"})
+  public void metrics() throws Exception {
+    Response response = call("GET", "/metrics", null);
+    Assert.assertEquals(response.status, 200);
+    Assert.assertTrue(
+        response.body.contains(
+            "signedurl_sidecar_requests_total{path=\"/v4/sign\",status=\"200\"}"),
+        response.body);
+    Assert.assertTrue(
+        response.body.contains("signedurl_phase_seconds_count{callout=\"V4SignedUrlCallout\""),
+        response.body);
+  }
+}